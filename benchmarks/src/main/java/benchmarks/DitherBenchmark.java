@@ -0,0 +1,140 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a whole grid of cells with {@code WavefrontMatcher}, the step that runs {@code distributeError}. Comparing
+ * {@code ERROR_DIFFUSION} with {@code NONE} gives the cost of diffusing the error, and the ordered modes show what
+ * dithering costs without it. Each operation is one grid.
+ * <p>
+ * The grid is copied on every operation, since matching writes the dithered colors back into it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DitherBenchmark {
+
+    private static final int PALETTE_SIZE = 2141;
+    private static final long SEED = 0xD17EL;
+
+    private static final Class<?> CELL_CONSUMER = Sources.type("WavefrontMatcher$CellConsumer");
+
+    private static final MethodHandle NEW_PALETTE = Sources.constructor("Palette",
+        MethodType.methodType(Object.class, Color[].class), Color[].class);
+    private static final MethodHandle NEW_KD_INDEX = Sources.constructor("KdColorIndex",
+        MethodType.methodType(Object.class, Object.class), Sources.type("Palette"));
+    private static final MethodHandle NEW_MATCHER = Sources.constructor("WavefrontMatcher",
+        MethodType.methodType(Object.class, Object.class, Object.class, ExecutorService.class, int.class),
+        Sources.type("ColorIndex"), Sources.type("Palette"), ExecutorService.class, int.class);
+    private static final MethodHandle MATCH = Sources.virtualMethod("WavefrontMatcher", "match",
+        MethodType.methodType(int[].class, Object.class, int[].class, int.class, int.class, Object.class,
+            Object.class),
+        MethodType.methodType(int[].class, int[].class, int.class, int.class, Sources.type("DitherMode"),
+            CELL_CONSUMER));
+
+    @Param({"NONE", "ERROR_DIFFUSION", "BAYER", "BLUE_NOISE"})
+    public String mode;
+
+    /**
+     * Rows matched at once. 1 is the serial scan.
+     */
+    @Param({"1", "4"})
+    public int parallelism;
+
+    /**
+     * Width of the grid of cells. A 4:3 picture scaled down by 5, like the one Main uses, is 128 cells wide.
+     */
+    @Param({"128", "512"})
+    public int width;
+
+    private int height;
+    private int[] pixels;
+    private Object matcher;
+    private Object dither;
+    private Object consumer;
+    private ExecutorService executorService;
+
+    @Setup
+    public void setUp() throws Throwable {
+        SplittableRandom random = new SplittableRandom(SEED);
+        height = width * 3 / 4;
+
+        Color[] colors = new Color[PALETTE_SIZE];
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            colors[i] = new Color(random.nextInt(1 << 24));
+        }
+        Object palette = (Object) NEW_PALETTE.invokeExact(colors);
+        Object index = (Object) NEW_KD_INDEX.invokeExact(palette);
+
+        // smooth gradients with some noise, like a photo, so error diffusion has gradual changes to work on
+        pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / width;
+                int g = 255 * y / height;
+                int b = 255 - (r + g) / 2;
+                int noise = random.nextInt(17) - 8;
+                pixels[y * width + x] = clamp(r + noise) << 16 | clamp(g + noise) << 8 | clamp(b + noise);
+            }
+        }
+
+        executorService = Executors.newFixedThreadPool(parallelism);
+        matcher = (Object) NEW_MATCHER.invokeExact(index, palette, executorService, parallelism);
+        dither = Sources.enumConstant("DitherMode", mode);
+        consumer = ignoreCells();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    public int[] match() throws Throwable {
+        return (int[]) MATCH.invokeExact(matcher, pixels.clone(), width, height, dither, consumer);
+    }
+
+    /**
+     * @return A consumer that does nothing, made as a lambda would be so calls to it are as cheap as Collage's own.
+     */
+    private static Object ignoreCells() throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType accept = MethodType.methodType(void.class, int.class, int.class, int.class);
+        MethodHandle ignore = lookup.findStatic(DitherBenchmark.class, "ignore", accept);
+
+        return LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(CELL_CONSUMER), accept, ignore,
+            accept).getTarget().invoke();
+    }
+
+    private static void ignore(int x, int y, int index) {
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+}
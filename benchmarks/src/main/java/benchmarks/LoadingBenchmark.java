@@ -0,0 +1,96 @@
+package benchmarks;
+
+import classes.Picture;
+import classes.SimplePicture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding images of the houses dataset, which is most of the time spent generating a palette. Each operation decodes
+ * the next of the first {@link #files} images, so the files stay in the OS cache and only decoding is measured.
+ * <p>
+ * Run from the benchmarks directory, or set {@code -p dataset=<directory>}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadingBenchmark {
+
+    /**
+     * Smallest size palette images are decoded at, as in Collage.
+     */
+    private static final int PALETTE_DECODE_SIZE = 64;
+
+    @Param("../src/resources/HousesDataset")
+    public String dataset;
+
+    @Param("64")
+    public int files;
+
+    private File[] images;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        File[] all = new File(dataset).listFiles((dir, name) -> name.endsWith(".jpg"));
+        if (all == null || all.length == 0) {
+            throw new IllegalStateException("No images in " + new File(dataset).getAbsolutePath() + ".");
+        }
+
+        Arrays.sort(all);
+        images = Arrays.copyOf(all, Math.min(files, all.length));
+    }
+
+    /**
+     * Decodes every pixel, as loading a picture used to.
+     */
+    @Benchmark
+    public BufferedImage imageIoRead() throws IOException {
+        return ImageIO.read(nextImage());
+    }
+
+    /**
+     * Decodes subsampled to the palette's size, skipping most pixels.
+     */
+    @Benchmark
+    public BufferedImage subsampledRead() throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(nextImage())) {
+            return SimplePicture.read(input, null, PALETTE_DECODE_SIZE, PALETTE_DECODE_SIZE);
+        }
+    }
+
+    /**
+     * Loads a reduced size picture, the way Collage decodes palette images when it reads them itself.
+     */
+    @Benchmark
+    public Picture pictureLoad() {
+        return new Picture(nextImage().getPath(), PALETTE_DECODE_SIZE, PALETTE_DECODE_SIZE);
+    }
+
+    private File nextImage() {
+        File image = images[next];
+        next = (next + 1) % images.length;
+        return image;
+    }
+
+}
@@ -0,0 +1,135 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Color;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the closest palette entry to a color, which is done once for every cell of a collage.
+ * <p>
+ * {@link #colorDifScan} is how the closest entry was first found, comparing every entry with {@code Collage.colorDif},
+ * and is the baseline the palette's scan and the k-d tree are measured against. Each operation is one query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchingBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final long SEED = 0xBE7CL;
+
+    private static final MethodHandle NEW_PALETTE = Sources.constructor("Palette",
+        MethodType.methodType(Object.class, Color[].class), Color[].class);
+    private static final MethodHandle NEW_KD_INDEX = Sources.constructor("KdColorIndex",
+        MethodType.methodType(Object.class, Object.class), Sources.type("Palette"));
+    private static final MethodHandle PALETTE_NEAREST = Sources.virtualMethod("Palette", "nearest",
+        MethodType.methodType(int.class, Object.class, int.class, int.class, int.class, int[].class),
+        MethodType.methodType(int.class, int.class, int.class, int.class, int[].class));
+    private static final MethodHandle KD_NEAREST = Sources.virtualMethod("KdColorIndex", "nearest",
+        MethodType.methodType(int.class, Object.class, int.class, int.class, int.class),
+        MethodType.methodType(int.class, int.class, int.class, int.class));
+    private static final MethodHandle COLOR_DIF = Sources.staticMethod("Collage", "colorDif",
+        MethodType.methodType(double.class, Color.class, Color.class),
+        MethodType.methodType(double.class, Color.class, Color.class));
+
+    /**
+     * Number of images in the palette. 2141 is the size of the houses dataset.
+     */
+    @Param({"64", "2141"})
+    public int paletteSize;
+
+    private Color[] colors;
+    private Object palette;
+    private Object kdIndex;
+    private int[] distances;
+    private int[] queries;
+    private Color[] queryColors;
+
+    @Setup
+    public void setUp() throws Throwable {
+        SplittableRandom random = new SplittableRandom(SEED);
+
+        colors = new Color[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            colors[i] = new Color(random.nextInt(1 << 24));
+        }
+        palette = (Object) NEW_PALETTE.invokeExact(colors);
+        kdIndex = (Object) NEW_KD_INDEX.invokeExact(palette);
+        distances = new int[paletteSize];
+
+        queries = new int[QUERIES];
+        queryColors = new Color[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = random.nextInt(1 << 24);
+            queryColors[i] = new Color(queries[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void paletteNearest(Blackhole blackhole) throws Throwable {
+        for (int rgb : queries) {
+            blackhole.consume((int) PALETTE_NEAREST.invokeExact(palette, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff,
+                rgb & 0xff, distances));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void kdNearest(Blackhole blackhole) throws Throwable {
+        for (int rgb : queries) {
+            blackhole.consume((int) KD_NEAREST.invokeExact(kdIndex, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff,
+                rgb & 0xff));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void colorDifScan(Blackhole blackhole) throws Throwable {
+        for (Color query : queryColors) {
+            int best = -1;
+            double bestDif = Double.MAX_VALUE;
+
+            for (int i = 0; i < colors.length; i++) {
+                double dif = (double) COLOR_DIF.invokeExact(query, colors[i]);
+                if (dif < bestDif) {
+                    bestDif = dif;
+                    best = i;
+                }
+            }
+
+            blackhole.consume(best);
+        }
+    }
+
+    /**
+     * A single color difference, so the scans can be compared per entry.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void colorDif(Blackhole blackhole) throws Throwable {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume((double) COLOR_DIF.invokeExact(queryColors[i], colors[i % colors.length]));
+        }
+    }
+
+}
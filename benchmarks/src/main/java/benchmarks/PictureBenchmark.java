@@ -0,0 +1,110 @@
+package benchmarks;
+
+import classes.Picture;
+import classes.Pixel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-picture operations: scaling images down to tiles, averaging them for the palette, and the pixel operations of
+ * {@link Picture}. Each operation is one picture.
+ * <p>
+ * {@link #negate} and {@link #grayscale} change the picture in place. They take as long however often they've been
+ * applied, so the same picture is reused.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PictureBenchmark {
+
+    private static final long SEED = 0x91C7L;
+
+    private static final MethodHandle SCALE = Sources.staticMethod("Collage", "scale",
+        MethodType.methodType(Picture.class, Picture.class, int.class, int.class, Color.class),
+        MethodType.methodType(Picture.class, Picture.class, int.class, int.class, Color.class));
+    private static final MethodHandle AVG_COLOR = Sources.staticMethod("Collage", "avgColor",
+        MethodType.methodType(Color.class, Picture.class),
+        MethodType.methodType(Color.class, Picture.class));
+
+    /**
+     * Width of the picture, which is 4:3. Images in the houses dataset are at most 640 wide.
+     */
+    @Param({"256", "640"})
+    public int width;
+
+    /**
+     * Size tiles are scaled to.
+     */
+    @Param({"5", "64"})
+    public int tileSize;
+
+    private Picture picture;
+    private Picture target;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int height = width * 3 / 4;
+
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+        }
+
+        picture = new Picture(height, width);
+        picture.setBasicPixels(0, 0, width, height, pixels, 0, width);
+        target = new Picture(height, width);
+    }
+
+    @Benchmark
+    public Picture scale() throws Throwable {
+        return (Picture) SCALE.invokeExact(picture, tileSize, tileSize, Color.BLACK);
+    }
+
+    @Benchmark
+    public Color avgColor() throws Throwable {
+        return (Color) AVG_COLOR.invokeExact(picture);
+    }
+
+    @Benchmark
+    public Picture copy() {
+        target.copy(picture, 0, 0);
+        return target;
+    }
+
+    @Benchmark
+    public Pixel[][] getPixels2D() {
+        return picture.getPixels2D();
+    }
+
+    @Benchmark
+    public Picture negate() {
+        picture.negate();
+        return picture;
+    }
+
+    @Benchmark
+    public Picture grayscale() {
+        picture.grayscale();
+        return picture;
+    }
+
+}
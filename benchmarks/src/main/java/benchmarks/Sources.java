@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Reaches the collage's classes in the default package, which code in a named package can't import, and JMH won't
+ * run benchmarks from the default package.
+ * <p>
+ * Handles are kept in static final fields by the benchmarks, so the JIT treats them as constants and calls through
+ * them compile to the same code as direct calls.
+ */
+final class Sources {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private Sources() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Collage class " + name + " isn't on the class path.", e);
+        }
+    }
+
+    /**
+     * @param type   Shape to call the constructor with, where classes from the default package are passed as
+     *               {@code Object}.
+     * @param params Parameter classes the constructor is declared with.
+     */
+    static MethodHandle constructor(String className, MethodType type, Class<?>... params) {
+        try {
+            return LOOKUP.findConstructor(type(className), MethodType.methodType(void.class, params)).asType(type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't find constructor of " + className + ".", e);
+        }
+    }
+
+    /**
+     * @param type     Shape to call the method with, where classes from the default package are passed as
+     *                 {@code Object}.
+     * @param declared Type the method is declared with.
+     */
+    static MethodHandle staticMethod(String className, String name, MethodType type, MethodType declared) {
+        try {
+            return LOOKUP.findStatic(type(className), name, declared).asType(type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't find " + className + "." + name + ".", e);
+        }
+    }
+
+    /**
+     * @param type     Shape to call the method with, receiver first, where classes from the default package are passed
+     *                 as {@code Object}.
+     * @param declared Type the method is declared with, without the receiver.
+     */
+    static MethodHandle virtualMethod(String className, String name, MethodType type, MethodType declared) {
+        try {
+            return LOOKUP.findVirtual(type(className), name, declared).asType(type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't find " + className + "." + name + ".", e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object enumConstant(String className, String name) {
+        return Enum.valueOf((Class) type(className), name);
+    }
+
+}
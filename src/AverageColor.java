@@ -0,0 +1,279 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.util.SplittableRandom;
+
+/**
+ * Average color of an image, read straight from its raster without creating an object per pixel.
+ */
+public final class AverageColor {
+
+    /**
+     * z-score of the confidence interval used to stop sampling (95%).
+     */
+    private static final double CONFIDENCE_Z = 1.96;
+
+    /**
+     * Strata per side in the first round of sampling.
+     */
+    private static final int FIRST_ROUND = 4;
+
+    private AverageColor() {
+    }
+
+    /**
+     * Averages every pixel of the image, one row at a time.
+     *
+     * @param image Image to average.
+     * @return Average color of the image.
+     */
+    public static Color exact(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        boolean direct = isDirect(image);
+        int bands = raster.getNumBands();
+        int[] row = new int[width * (direct ? bands : 1)];
+
+        long r = 0;
+        long g = 0;
+        long b = 0;
+
+        if (direct && raster.getDataBuffer() instanceof DataBufferByte
+            && raster.getSampleModel() instanceof ComponentSampleModel) {
+            return exactBytes(raster);
+        }
+
+        for (int y = 0; y < height; y++) {
+            if (direct) {
+                raster.getPixels(0, y, width, 1, row);
+
+                for (int i = 0; i < row.length; i += bands) {
+                    r += row[i];
+                    g += row[i + 1];
+                    b += row[i + 2];
+                }
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+
+                for (int rgb : row) {
+                    r += (rgb >> 16) & 0xff;
+                    g += (rgb >> 8) & 0xff;
+                    b += rgb & 0xff;
+                }
+            }
+        }
+
+        long count = (long) width * height;
+        return new Color((int) (r / count), (int) (g / count), (int) (b / count));
+    }
+
+    /**
+     * Averages a raster of interleaved or banded bytes by walking its data array directly.
+     */
+    private static Color exactBytes(Raster raster) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] bankIndices = sampleModel.getBankIndices();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int[] bankOffsets = buffer.getOffsets();
+        byte[] red = buffer.getData(bankIndices[0]);
+        byte[] green = buffer.getData(bankIndices[1]);
+        byte[] blue = buffer.getData(bankIndices[2]);
+        int redOffset = bandOffsets[0] + bankOffsets[bankIndices[0]];
+        int greenOffset = bandOffsets[1] + bankOffsets[bankIndices[1]];
+        int blueOffset = bandOffsets[2] + bankOffsets[bankIndices[2]];
+
+        long r = 0;
+        long g = 0;
+        long b = 0;
+
+        for (int y = 0; y < height; y++) {
+            int start = (raster.getMinY() - raster.getSampleModelTranslateY() + y) * sampleModel.getScanlineStride()
+                + (raster.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+            int end = start + width * pixelStride;
+
+            for (int i = start; i < end; i += pixelStride) {
+                r += red[i + redOffset] & 0xff;
+                g += green[i + greenOffset] & 0xff;
+                b += blue[i + blueOffset] & 0xff;
+            }
+        }
+
+        long count = (long) width * height;
+        return new Color((int) (r / count), (int) (g / count), (int) (b / count));
+    }
+
+    /**
+     * Estimates the average color from a stratified random sample.
+     * <p>
+     * Sampling happens in rounds. Each round divides the image into a grid twice as fine as the last one and takes
+     * one pixel from each grid cell. After each round, sampling stops once the 95% confidence interval of every
+     * channel's mean is within the tolerance, or the next round would go over the sample limit. The same seed always
+     * samples the same pixels.
+     *
+     * @param image      Image to average.
+     * @param maxSamples Most pixels to sample. At least one round is always sampled.
+     * @param seed       Seed for choosing pixels within each grid cell.
+     * @param tolerance  Half-width of the confidence interval to stop at, in channel values (0 to 255).
+     * @return Estimated average color of the image.
+     */
+    public static Color sampled(BufferedImage image, int maxSamples, long seed, double tolerance) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        boolean direct = isDirect(image);
+        int[] pixel = new int[raster.getNumBands()];
+        Object data = null;
+        SplittableRandom random = new SplittableRandom(seed);
+
+        long count = 0;
+        long r = 0, g = 0, b = 0;
+        long rr = 0, gg = 0, bb = 0;
+
+        for (int strata = FIRST_ROUND; ; strata *= 2) {
+            int rows = Math.min(strata, height);
+            int cols = Math.min(strata, width);
+
+            for (int row = 0; row < rows; row++) {
+                int top = row * height / rows;
+                int bottom = (row + 1) * height / rows;
+
+                for (int col = 0; col < cols; col++) {
+                    int left = col * width / cols;
+                    int right = (col + 1) * width / cols;
+                    int x = left + random.nextInt(right - left);
+                    int y = top + random.nextInt(bottom - top);
+
+                    int red, green, blue;
+                    if (direct) {
+                        raster.getPixel(x, y, pixel);
+                        red = pixel[0];
+                        green = pixel[1];
+                        blue = pixel[2];
+                    } else {
+                        data = raster.getDataElements(x, y, data);
+                        int rgb = image.getColorModel().getRGB(data);
+                        red = (rgb >> 16) & 0xff;
+                        green = (rgb >> 8) & 0xff;
+                        blue = rgb & 0xff;
+                    }
+
+                    r += red;
+                    g += green;
+                    b += blue;
+                    rr += red * red;
+                    gg += green * green;
+                    bb += blue * blue;
+                }
+            }
+
+            count += (long) rows * cols;
+
+            boolean whole = rows == height && cols == width;
+            long nextRound = (long) Math.min(strata * 2, height) * Math.min(strata * 2, width);
+            if (whole || count + nextRound > maxSamples || (withinTolerance(r, rr, count, tolerance)
+                && withinTolerance(g, gg, count, tolerance) && withinTolerance(b, bb, count, tolerance))) {
+                break;
+            }
+        }
+
+        return new Color((int) (r / count), (int) (g / count), (int) (b / count));
+    }
+
+    /**
+     * Averages each cell of a grid laid over the image, so images can be told apart by where their colors are and
+     * not just by their overall color.
+     *
+     * @param image Image to average.
+     * @param size  Number of cells along each side of the grid.
+     * @return Average color of each cell as an RGB int, row by row.
+     */
+    public static int[] grid(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        return grid(image.getRGB(0, 0, width, height, null, 0, width), 0, width, width, height, size);
+    }
+
+    /**
+     * Averages each cell of a grid laid over a region of pixels. Cells are at least one pixel, so regions smaller
+     * than the grid repeat pixels instead of leaving cells empty.
+     *
+     * @param pixels   Pixels as RGB ints.
+     * @param offset   Index of the top left pixel of the region.
+     * @param scansize Distance between the starts of two rows.
+     * @param width    Width of the region.
+     * @param height   Height of the region.
+     * @param size     Number of cells along each side of the grid.
+     * @return Average color of each cell as an RGB int, row by row.
+     */
+    public static int[] grid(int[] pixels, int offset, int scansize, int width, int height, int size) {
+        int[] cells = new int[size * size];
+
+        for (int cellY = 0; cellY < size; cellY++) {
+            int top = Math.min(cellY * height / size, height - 1);
+            int bottom = Math.max(top + 1, (cellY + 1) * height / size);
+
+            for (int cellX = 0; cellX < size; cellX++) {
+                int left = Math.min(cellX * width / size, width - 1);
+                int right = Math.max(left + 1, (cellX + 1) * width / size);
+
+                long r = 0, g = 0, b = 0;
+                for (int y = top; y < bottom; y++) {
+                    for (int i = offset + y * scansize + left; i < offset + y * scansize + right; i++) {
+                        r += (pixels[i] >> 16) & 0xff;
+                        g += (pixels[i] >> 8) & 0xff;
+                        b += pixels[i] & 0xff;
+                    }
+                }
+
+                long count = (long) (bottom - top) * (right - left);
+                cells[cellY * size + cellX] = (int) (r / count) << 16 | (int) (g / count) << 8 | (int) (b / count);
+            }
+        }
+
+        return cells;
+    }
+
+    private static boolean withinTolerance(long sum, long sumOfSquares, long count, double tolerance) {
+        if (count < 2) {
+            return false;
+        }
+
+        double mean = (double) sum / count;
+        double variance = Math.max(0, ((double) sumOfSquares - mean * sum) / (count - 1));
+
+        return CONFIDENCE_Z * Math.sqrt(variance / count) <= tolerance;
+    }
+
+    /**
+     * Checks whether the raster's samples are 8-bit sRGB red, green and blue, in that order, so they can be read
+     * without going through the color model.
+     */
+    private static boolean isDirect(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        Raster raster = image.getRaster();
+
+        if (colorModel instanceof IndexColorModel || !colorModel.getColorSpace().isCS_sRGB()
+            || colorModel.isAlphaPremultiplied() || raster.getNumBands() < 3) {
+            return false;
+        }
+
+        for (int size : raster.getSampleModel().getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -1,27 +1,96 @@
+import classes.BandWriter;
+import classes.DigitalPicture;
 import classes.Picture;
-import classes.Pixel;
+import classes.PngBandWriter;
+import classes.PpmBandWriter;
+import classes.SimplePicture;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 /**
  * Used to generate a collage from a picture.
  */
 public class Collage {
 
-    private Color[] palette;
+    /**
+     * Identifies how palette colors are computed, so indexes made another way are rebuilt.
+     */
+    private static final long PALETTE_SETTINGS = 3;
+
+    /**
+     * Number of cells along each side of the grid of average colors kept for each image.
+     */
+    private static final int GRID_SIZE = 3;
+
+    private static final long FEATURE_INDEX_SEED = 0x1FFL;
+
+    /**
+     * Smallest size palette images are decoded at. Averaging doesn't need every pixel, so larger images are
+     * subsampled while decoding.
+     */
+    private static final int PALETTE_DECODE_SIZE = 64;
+
+    /**
+     * Most palette images read per processor that are waiting to be decoded. Reads get ahead of decoding on the I/O
+     * executor, and this keeps them from holding every file in memory at once.
+     */
+    private static final int READ_AHEAD_PER_PROCESSOR = 4;
+
+    private static final long DEFAULT_PROGRESS_INTERVAL = 500_000_000L;
+
+    /**
+     * Most matched cells waiting to be rendered. Matching waits when the queue is full, so memory use doesn't grow
+     * with the size of the collage.
+     */
+    private static final int RENDER_QUEUE_CAPACITY = 1024;
+
+    private static final long SAMPLE_SEED = 0x5EEDL;
+    private static final double SAMPLE_TOLERANCE = 2;
+
+    private Palette palette;
+    private ColorIndex colorIndex;
+    private int[][] tileFeatures;
+    private FeatureIndex featureIndex;
+    private File directory;
     private File[] images;
     private Picture source;
     private int picScl;
     private int scl;
+    private Executor ioExecutor;
     private ExecutorService executorService;
+    private TileCache tileCache = new TileCache();
+    private CollageListener listener;
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    private int maxUses;
+    private DitherKernel ditherKernel = DitherKernel.FLOYD_STEINBERG;
+    private boolean serpentine;
 
     /**
      * @param source    Picture to make the collage from.
@@ -30,12 +99,44 @@ public class Collage {
      * @param directory Source directory of the images to be used in the collage.
      */
     public Collage(Picture source, int picScl, int scl, String directory, ExecutorService executorService) {
+        this(source, picScl, scl, directory, executorService, CollageListener.SILENT);
+    }
+
+    /**
+     * @param source    Picture to make the collage from.
+     * @param picScl    How large each individual picture in the collage will be.
+     * @param scl       Resolution of the collage.
+     * @param directory Source directory of the images to be used in the collage.
+     * @param listener  Receives progress of generating the palette and creating collages.
+     */
+    public Collage(Picture source, int picScl, int scl, String directory, ExecutorService executorService,
+                   CollageListener listener) {
+        this(source, picScl, scl, directory, null, executorService, listener);
+    }
+
+    /**
+     * Reading image files mostly waits on the disk while decoding, scaling and matching keep a processor busy, so
+     * they're given separate executors, sized for each. See {@link CollageExecutors}.
+     *
+     * @param source          Picture to make the collage from.
+     * @param picScl          How large each individual picture in the collage will be.
+     * @param scl             Resolution of the collage.
+     * @param directory       Source directory of the images to be used in the collage.
+     * @param ioExecutor      Reads image files, or null to read each file in the same task that decodes it.
+     * @param executorService Decodes and scales images, matches cells and draws the collage.
+     * @param listener        Receives progress of generating the palette and creating collages.
+     */
+    public Collage(Picture source, int picScl, int scl, String directory, Executor ioExecutor,
+                   ExecutorService executorService, CollageListener listener) {
+        this.ioExecutor = ioExecutor;
         this.executorService = executorService;
+        this.listener = listener;
         this.source = source;
         this.picScl = picScl;
         this.scl = scl;
 
-        File[] files = new File(directory).listFiles();
+        this.directory = new File(directory);
+        File[] files = this.directory.listFiles();
 
         int imgCnt = 0;
         for (File file : files) {
@@ -53,180 +154,569 @@ public class Collage {
         }
 
         palette = generatePalette();
+        colorIndex = new KdColorIndex(palette);
     }
 
     /**
-     * @param dither Whether to apply Floyd–Steinberg dithering or not.
+     * @param dither Whether to apply error diffusion dithering or not.
      */
     public Picture createCollage(boolean dither) {
-        Picture scaled = source.scale((double) 1 / scl, (double) 1 / scl);
-        Picture collage = new Picture(source.getHeight() / scl * picScl, source.getWidth() / scl * picScl);
-        DecimalFormat df = new DecimalFormat("0.000");
-
-        System.out.println("Creating collage...");
-        List<CompletableFuture<Void>> copyTasks = new ArrayList<>();
-        for (int y = 0; y < scaled.getHeight(); y++) {
-            for (int x = 0; x < scaled.getWidth(); x++) {
-                Color current = scaled.getPixel(x, y).getColor();
+        return createCollage(ditherMode(dither));
+    }
 
-                int index = findPalette(current);
-                Color picColor = palette[index];
+    /**
+     * @param dither How to dither the collage.
+     */
+    public Picture createCollage(DitherMode dither) {
+        Picture collage = new Picture(getCollageHeight(), getCollageWidth());
+        createCollage(dither, collage);
 
-                if (dither) {
-                    distributeError(scaled, picColor, x, y);
-                }
+        return collage;
+    }
 
-                int finalX = x, finalY = y;
-                copyTasks.add(CompletableFuture.runAsync(() -> {
-                    Picture sclPic = scale(new Picture(images[index].getAbsolutePath()), picScl, picScl, picColor);
-                    collage.copy(sclPic, finalY * picScl, finalX * picScl);
-                }, executorService));
+    /**
+     * Creates a collage on an existing canvas.
+     *
+     * @param dither Whether to apply error diffusion dithering or not.
+     * @param canvas Picture to draw the collage on.
+     * @see #createCollage(DitherMode, DigitalPicture)
+     */
+    public void createCollage(boolean dither, DigitalPicture canvas) {
+        createCollage(ditherMode(dither), canvas);
+    }
 
-                System.out.println("Progress: " + df.format((double) (y * scaled.getWidth() + x + 1) * 100 / (scaled.getWidth() * scaled.getHeight())) + "%");
-            }
+    /**
+     * Creates a collage on an existing canvas, such as a {@link classes.MappedPicture} for collages too large for the heap.
+     * Tiles that don't fit on the canvas are clipped.
+     *
+     * @param dither How to dither the collage.
+     * @param canvas Picture to draw the collage on, normally {@link #getCollageWidth()} by
+     *               {@link #getCollageHeight()}.
+     */
+    public void createCollage(DitherMode dither, DigitalPicture canvas) {
+        Picture scaled = source.scale((double) 1 / scl, (double) 1 / scl);
+        TileCompositor compositor = new TileCompositor(canvas, picScl);
+        ProgressTracker progress = new ProgressTracker(listener, "collage",
+            (long) scaled.getWidth() * scaled.getHeight(), progressInterval);
+
+        int width = scaled.getWidth();
+        int height = scaled.getHeight();
+        int[] pixels = scaled.getBasicPixels(0, 0, width, height, null, 0, width);
+        WavefrontMatcher matcher = newMatcher(pixels, width, height);
+
+        BlockingQueue<RenderJob> renderQueue = new ArrayBlockingQueue<>(RENDER_QUEUE_CAPACITY);
+        RenderFailure failure = new RenderFailure();
+        Map<Integer, CompletableFuture<Picture>> tiles = new ConcurrentHashMap<>();
+        Queue<CompletableFuture<Void>> pending = new ConcurrentLinkedQueue<>();
+
+        CompletableFuture<int[]> matching;
+        if (maxUses > 0) {
+            // cells can only be drawn once every cell is assigned
+            matching = matcher.matchAsync(pixels, width, height, dither, (x, y, index) -> {
+            }).thenApply(matches -> {
+                int[] assigned = assign(pixels, width, height);
+                for (int i = 0; i < assigned.length; i++) {
+                    enqueue(renderQueue, new RenderJob(i % width, i / width, assigned[i]));
+                }
+                return assigned;
+            });
+        } else {
+            matching = matcher.matchAsync(pixels, width, height, dither,
+                (x, y, index) -> enqueue(renderQueue, new RenderJob(x, y, index)));
         }
+        matching.whenComplete((indices, e) -> enqueue(renderQueue, RenderJob.END));
+
+        // taking a job only starts or attaches its draw, so one thread keeps up, and the calling thread is used so
+        // no compute thread is left waiting on the queue instead of matching and decoding
+        render(renderQueue, tiles, pending, compositor, progress, failure);
 
         try {
-            System.out.println("Finishing collage...");
-            CompletableFuture.allOf(copyTasks.toArray(new CompletableFuture[0])).get();
+            matching.get();
+            // failed draws are reported through the failure below
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException("Issue with encountered when completing collage.", e);
         }
 
-        return collage;
+        if (failure.cause != null) {
+            throw new RuntimeException("Issue with encountered when completing collage.", failure.cause);
+        }
+
+        progress.finish();
+        listener.message("Rendered " + tiles.size() + " unique tiles for " + width * height + " cells (dedup ratio "
+            + new DecimalFormat("0.0").format((double) width * height / Math.max(1, tiles.size())) + "x).");
+        listener.message("Tile cache: " + tileCache);
     }
 
-    public static Picture scale(Picture pic, int width, int height, Color background) {
-        AffineTransform scale = new AffineTransform();
-        scale.scale((double) width / pic.getWidth(), (double) height / pic.getHeight());
+    /**
+     * Creates a collage and writes it to a file.
+     *
+     * @param dither Whether to apply error diffusion dithering or not.
+     * @param file   File to write the collage to.
+     * @see #writeCollage(DitherMode, File)
+     */
+    public void writeCollage(boolean dither, File file) throws IOException {
+        writeCollage(ditherMode(dither), file);
+    }
 
-        Picture scaled = new Picture(height, width);
-        Graphics2D g = (Graphics2D) scaled.getGraphics();
+    /**
+     * Creates a collage and writes it to a file, one row of cells at a time, so the collage never has to fit in
+     * memory. Files ending in .ppm are written as binary PPM, files ending in .dzi as a Deep Zoom pyramid of PNG tiles
+     * next to the descriptor, and anything else as PNG.
+     *
+     * @param dither How to dither the collage.
+     * @param file   File to write the collage to.
+     */
+    public void writeCollage(DitherMode dither, File file) throws IOException {
+        int width = getCollageWidth();
+        int height = getCollageHeight();
+        String name = file.getName();
+
+        if (name.toLowerCase().endsWith(".dzi")) {
+            try (BandWriter output = new DeepZoomWriter(file.getAbsoluteFile().getParentFile(),
+                name.substring(0, name.length() - 4), "png", width, height, executorService)) {
+                writeCollage(dither, output);
+            }
+            return;
+        }
 
-        g.setBackground(background);
-        g.drawImage(pic.getImage(), scale, null);
+        // the stream is its own resource, so it's closed even if the writer can't be made
+        try (OutputStream stream = new FileOutputStream(file);
+             BandWriter output = name.toLowerCase().endsWith(".ppm")
+                 ? new PpmBandWriter(stream, width, height)
+                 : new PngBandWriter(stream, width, height)) {
+            writeCollage(dither, output);
+        }
+    }
 
-        return scaled;
+    /**
+     * Creates a collage one row of cells at a time.
+     *
+     * @param dither Whether to apply error diffusion dithering or not.
+     * @param output Receives the collage. Must be as large as {@link #createCollage} would make it. It isn't closed.
+     * @see #writeCollage(DitherMode, BandWriter)
+     */
+    public void writeCollage(boolean dither, BandWriter output) throws IOException {
+        writeCollage(ditherMode(dither), output);
     }
 
     /**
-     * Floyd-Steinberg dithering, implemented as described at:
-     * <p>
-     * https://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
+     * Creates a collage one row of cells at a time, passing each row to the output as soon as it is drawn and then
+     * reusing its memory for a later row. While one row is being written, the next is drawn on the executor.
+     * Tiles come from the tile cache, which stays within its weight limit however large the collage is.
      *
-     * @param pic      Picture to be dithered.
-     * @param newColor New color.
-     * @param x        Current x position.
-     * @param y        Current y position.
-     */
-    private static void distributeError(Picture pic, Color newColor, int x, int y) {
-        Pixel current = pic.getPixel(x, y);
-
-        int errorR = current.getRed() - newColor.getRed();
-        int errorG = current.getGreen() - newColor.getGreen();
-        int errorB = current.getBlue() - newColor.getBlue();
-
-        if (x + 1 < pic.getWidth()) {
-            Pixel next = pic.getPixel(x + 1, y);
-            next.setColor(new Color(fix(next.getRed() + errorR * 7 / 16),
-                fix(next.getGreen() + errorG * 7 / 16),
-                fix(next.getBlue() + errorB * 7 / 16)));
+     * @param dither How to dither the collage.
+     * @param output Receives the collage. Must be as large as {@link #createCollage} would make it. It isn't closed.
+     */
+    public void writeCollage(DitherMode dither, BandWriter output) throws IOException {
+        Picture scaled = source.scale((double) 1 / scl, (double) 1 / scl);
+        int width = scaled.getWidth();
+        int height = scaled.getHeight();
+        int outputWidth = getCollageWidth();
+        int outputHeight = getCollageHeight();
+
+        if (output.getWidth() != outputWidth || output.getHeight() != outputHeight) {
+            throw new IllegalArgumentException("Collage is " + outputWidth + "x" + outputHeight + ", but output is "
+                + output.getWidth() + "x" + output.getHeight() + ".");
         }
 
-        if (x - 1 > 0 && y + 1 < pic.getHeight()) {
-            Pixel next = pic.getPixel(x - 1, y + 1);
-            next.setColor(new Color(fix(next.getRed() + errorR * 3 / 16),
-                fix(next.getGreen() + errorG * 3 / 16),
-                fix(next.getBlue() + errorB * 3 / 16)));
+        int[] pixels = scaled.getBasicPixels(0, 0, width, height, null, 0, width);
+        int[] indices = newMatcher(pixels, width, height).match(pixels, width, height, dither, (x, y, index) -> {
+        });
+        if (maxUses > 0) {
+            indices = assign(pixels, width, height);
         }
 
-        if (y + 1 < pic.getHeight()) {
-            Pixel next = pic.getPixel(x, y + 1);
-            next.setColor(new Color(fix(next.getRed() + errorR * 5 / 16),
-                fix(next.getGreen() + errorG * 5 / 16),
-                fix(next.getBlue() + errorB * 5 / 16)));
+        ProgressTracker progress = new ProgressTracker(listener, "collage", (long) width * height, progressInterval);
+        Picture[] bands = {new Picture(picScl, outputWidth), new Picture(picScl, outputWidth)};
+        int bandCount = (outputHeight + picScl - 1) / picScl;
+
+        CompletableFuture<Void> next = drawBand(indices, width, height, 0, bands[0], progress);
+        for (int band = 0; band < bandCount; band++) {
+            try {
+                next.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Issue with encountered when drawing collage.", e);
+            }
+
+            Picture current = bands[band % 2];
+            if (band + 1 < bandCount) {
+                next = drawBand(indices, width, height, band + 1, bands[(band + 1) % 2], progress);
+            }
+
+            int rows = Math.min(picScl, outputHeight - band * picScl);
+            int[] data = current.getIntData();
+            if (data == null) {
+                data = current.getBasicPixels(0, 0, outputWidth, rows, null, 0, outputWidth);
+            }
+            output.writeBand(data, 0, outputWidth, rows);
         }
 
-        if (x + 1 < pic.getWidth() && y + 1 < pic.getHeight()) {
-            Pixel next = pic.getPixel(x + 1, y + 1);
-            next.setColor(new Color(fix(next.getRed() + errorR / 16),
-                fix(next.getGreen() + errorG / 16),
-                fix(next.getBlue() + errorB / 16)));
+        progress.finish();
+        listener.message("Tile cache: " + tileCache);
+    }
+
+    /**
+     * Draws a row of cells into a band on the executor, split between one task per processor.
+     */
+    private CompletableFuture<Void> drawBand(int[] indices, int width, int height, int cellY, Picture band,
+                                             ProgressTracker progress) {
+        if (cellY >= height) {
+            band.setAllPixelsToAColor(Color.BLACK);
+            return CompletableFuture.completedFuture(null);
         }
+
+        TileCompositor compositor = new TileCompositor(band, picScl);
+        int tasks = Math.min(width, Runtime.getRuntime().availableProcessors());
+
+        List<CompletableFuture<Void>> drawTasks = new ArrayList<>();
+        for (int task = 0; task < tasks; task++) {
+            int first = task * width / tasks;
+            int last = (task + 1) * width / tasks;
+
+            drawTasks.add(CompletableFuture.supplyAsync(() -> {
+                List<CompletableFuture<Void>> draws = new ArrayList<>();
+                for (int x = first; x < last; x++) {
+                    int index = indices[cellY * width + x];
+                    draws.add(drawWhenLoaded(loadTile(index), compositor, x, 0, progress));
+                }
+                return CompletableFuture.allOf(draws.toArray(new CompletableFuture<?>[0]));
+            }, executorService).thenCompose(draws -> draws));
+        }
+
+        return CompletableFuture.allOf(drawTasks.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static DitherMode ditherMode(boolean dither) {
+        return dither ? DitherMode.ERROR_DIFFUSION : DitherMode.NONE;
     }
 
     /**
-     * Makes sure a value is within the range 0 to 255 (inclusive).
+     * Assigns images to cells through a {@link TileAssigner}, using each image at most {@link #maxUses} times.
      *
-     * @param val Value.
-     * @return The value, now in range.
+     * @param pixels Color of each cell, after dithering if any.
+     * @return Index of the palette image for each cell, in raster order.
      */
-    private static int fix(int val) {
-        if (val < 0) {
-            return 0;
+    private int[] assign(int[] pixels, int width, int height) {
+        long start = System.nanoTime();
+        int[] assigned = new TileAssigner(palette, executorService).assign(pixels, width, height, maxUses, true);
+
+        listener.message("Assigned " + assigned.length + " cells with each image used at most " + maxUses
+            + " times in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        return assigned;
+    }
+
+    /**
+     * @param pixels Average color of each cell before dithering.
+     * @param width  Number of columns of cells.
+     * @param height Number of rows of cells.
+     */
+    private WavefrontMatcher newMatcher(int[] pixels, int width, int height) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        if (featureIndex == null) {
+            return new WavefrontMatcher((x, y, r, g, b) -> colorIndex.nearest(r, g, b), palette, ditherKernel,
+                serpentine, executorService, parallelism);
         }
 
-        if (val > 255) {
-            return 255;
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int[] sourcePixels = source.getBasicPixels(0, 0, sourceWidth, sourceHeight, null, 0, sourceWidth);
+
+        return new WavefrontMatcher((x, y, r, g, b) -> {
+            int left = x * sourceWidth / width;
+            int top = y * sourceHeight / height;
+            int[] grid = AverageColor.grid(sourcePixels, top * sourceWidth + left, sourceWidth,
+                Math.max(1, (x + 1) * sourceWidth / width - left), Math.max(1, (y + 1) * sourceHeight / height - top),
+                GRID_SIZE);
+
+            // move the whole grid by the error diffused into the cell, whose pixel isn't replaced until it's matched
+            int rgb = pixels[y * width + x];
+            int errorR = r - ((rgb >> 16) & 0xff);
+            int errorG = g - ((rgb >> 8) & 0xff);
+            int errorB = b - (rgb & 0xff);
+            if (errorR != 0 || errorG != 0 || errorB != 0) {
+                for (int i = 0; i < grid.length; i++) {
+                    grid[i] = clamp(((grid[i] >> 16) & 0xff) + errorR) << 16
+                        | clamp(((grid[i] >> 8) & 0xff) + errorG) << 8
+                        | clamp((grid[i] & 0xff) + errorB);
+                }
+            }
+
+            return featureIndex.nearest(grid);
+        }, palette, ditherKernel, serpentine, executorService, parallelism);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Takes render jobs off the queue and draws their tiles until it reaches the end of the queue.
+     * Tiles still loading are drawn once they're loaded, so rendering never waits on a tile, and the draws left
+     * waiting are added to the pending ones. If a tile fails, the rest of the jobs are still taken off the queue, so
+     * matching never waits on a full queue, but they aren't drawn.
+     */
+    private void render(BlockingQueue<RenderJob> renderQueue, Map<Integer, CompletableFuture<Picture>> tiles,
+                        Queue<CompletableFuture<Void>> pending, TileCompositor compositor, ProgressTracker progress,
+                        RenderFailure failure) {
+        while (true) {
+            RenderJob job;
+            try {
+                job = renderQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while rendering collage.", e);
+            }
+
+            if (job == RenderJob.END) {
+                return;
+            }
+
+            if (failure.cause != null) {
+                continue;
+            }
+
+            CompletableFuture<Void> drawn = drawWhenLoaded(renderOnce(tiles, job.index), compositor, job.x, job.y,
+                progress).whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        failure.cause = e instanceof CompletionException && e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e);
+                    }
+                });
+            if (!drawn.isDone()) {
+                pending.add(drawn);
+            }
         }
+    }
 
-        return val;
+    /**
+     * Draws a tile once it's loaded: right away if it already is, or otherwise on the thread that finishes loading it.
+     *
+     * @return Completes once the tile is drawn.
+     */
+    private static CompletableFuture<Void> drawWhenLoaded(CompletableFuture<Picture> tile, TileCompositor compositor,
+                                                          int x, int y, ProgressTracker progress) {
+        return tile.thenAccept(sclPic -> {
+            compositor.draw(sclPic, x, y);
+            progress.increment();
+        });
     }
 
     /**
-     * Generates pictures to be used in collage, scaled appropriately.
+     * Gets the tile for a palette entry, rendering it only if no other cell of this collage has yet.
+     * Cells that match the same entry share its image, size and background, so they can all be stamped with the
+     * same tile, and concurrent requests for it share the one render instead of starting their own.
      *
-     * @return Pictures to be used in collage.
+     * @param tiles Tiles rendered so far for this collage, by palette index.
+     * @param index Palette index.
+     * @return The tile, once it's rendered.
      */
-    private Color[] generatePalette() {
-        System.out.println("Generating palette...");
-        Color[] palette;
+    private CompletableFuture<Picture> renderOnce(Map<Integer, CompletableFuture<Picture>> tiles, int index) {
+        return tiles.computeIfAbsent(index, this::loadTile);
+    }
 
-        palette = new Color[images.length];
+    /**
+     * Gets the tile for a palette entry from the tile cache, starting to decode and scale its image if it isn't
+     * cached.
+     */
+    private CompletableFuture<Picture> loadTile(int index) {
+        Color picColor = palette.getColor(index);
 
-        List<CompletableFuture<Void>> averageTasks = new ArrayList<>();
-        int count = 0;
-        for (File picFile : images) {
-            System.out.println("Loading file: " + picFile.getName() + " (" + (count + 1) + " of " + images.length + ").");
+        return tileCache.getAsync(images[index], picScl, picColor, () -> load(images[index], picScl, picScl)
+            .thenApply(pic -> scale(pic, picScl, picScl, picColor)));
+    }
+
+    /**
+     * Loads an image, subsampled down to at least the given size. Images that can't be loaded are reported and
+     * replaced the way {@link Picture} always does.
+     */
+    private CompletableFuture<Picture> load(File file, int width, int height) {
+        return loadOrFail(file, width, height).exceptionally(e -> loadFailed(file, e));
+    }
+
+    /**
+     * Loads an image, subsampled down to at least the given size. The file is read on the I/O executor and decoded
+     * on the compute executor once it has been read, so no thread of either waits on the other. Without an I/O
+     * executor, reading and decoding are one task on the compute executor.
+     *
+     * @return The image, or a future that fails if it can't be read or decoded.
+     */
+    private CompletableFuture<Picture> loadOrFail(File file, int width, int height) {
+        if (ioExecutor == null) {
+            return CompletableFuture.supplyAsync(() -> decode(file, readBytes(file), width, height), executorService);
+        }
+
+        return CompletableFuture.supplyAsync(() -> readBytes(file), ioExecutor)
+            .thenApplyAsync(data -> decode(file, data, width, height), executorService);
+    }
 
-            int finalCount = count;
-            averageTasks.add(CompletableFuture.runAsync(() -> palette[finalCount] = avgColor(new Picture(picFile.getAbsolutePath()), 100), executorService));
-            count++;
+    /**
+     * @return The file's contents, or null if it couldn't be read.
+     */
+    private static byte[] readBytes(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            return null;
         }
+    }
 
+    /**
+     * Decodes an image read by {@link #readBytes}, subsampling it down to at least the given size. Images that
+     * couldn't be read are loaded from their file again, which gives the reason they can't be.
+     *
+     * @param data Contents of the file, or null if it couldn't be read.
+     * @throws UncheckedIOException If the image can't be read or decoded.
+     */
+    private static Picture decode(File file, byte[] data, int width, int height) {
         try {
-            System.out.println("Finishing palette...");
-            CompletableFuture.allOf(averageTasks.toArray(new CompletableFuture[0])).get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Issue encountered with generating palette.", e);
+            if (data == null) {
+                Picture pic = new Picture();
+                pic.loadOrFail(file.getAbsolutePath(), null, width, height);
+                return pic;
+            }
+
+            try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+                BufferedImage image = SimplePicture.read(input, null, width, height);
+                if (image == null) {
+                    throw new IOException(file.getAbsolutePath() + " is not in a format that can be read.");
+                }
+                return new Picture(image);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        return palette;
+    /**
+     * Reports an image that couldn't be loaded and makes a placeholder for it.
+     */
+    private static Picture loadFailed(File file, Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+            && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        Picture pic = new Picture();
+        pic.loadFailed(file.getAbsolutePath(),
+            cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+        return pic;
+    }
+
+    /**
+     * Adds a job to the render queue, waiting for room if it is full.
+     */
+    private static void enqueue(BlockingQueue<RenderJob> renderQueue, RenderJob job) {
+        try {
+            renderQueue.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while matching collage.", e);
+        }
+    }
+
+    public static Picture scale(Picture pic, int width, int height, Color background) {
+        AffineTransform scale = new AffineTransform();
+        scale.scale((double) width / pic.getWidth(), (double) height / pic.getHeight());
+
+        Picture scaled = new Picture(height, width);
+        Graphics2D g = (Graphics2D) scaled.getGraphics();
+
+        g.setBackground(background);
+        g.drawImage(pic.getImage(), scale, null);
+
+        return scaled;
     }
 
     /**
-     * Finds the closest color in the palette to the inputted color.
+     * Generates pictures to be used in collage, scaled appropriately.
+     * Average colors are read from the directory's palette index where possible, so only images that are new or
+     * changed since the last run get decoded. Along with each image's average color, the average colors of a grid
+     * over it are kept for {@link #useFeatureIndex}.
      *
-     * @param original Color you're trying to approximate.
-     * @return Closest color in the palette.
+     * @return Pictures to be used in collage.
      */
-    private int findPalette(Color original) {
-        double maxErr = Double.MAX_VALUE;
-        int closest = -1;
+    private Palette generatePalette() {
+        Color[] palette;
 
-        int index = 0;
-        for (Color color : palette) {
-            double err = colorDif(original, color);
+        palette = new Color[images.length];
+        tileFeatures = new int[images.length][];
+
+        PaletteIndex index = PaletteIndex.load(directory, PALETTE_SETTINGS, 1 + GRID_SIZE * GRID_SIZE, listener);
+        index.retain(images);
+
+        List<File> stale = new ArrayList<>();
+        List<Integer> staleIndices = new ArrayList<>();
+        for (int i = 0; i < images.length; i++) {
+            int[] features = index.get(images[i]);
+
+            if (features != null) {
+                palette[i] = new Color(features[0]);
+                tileFeatures[i] = Arrays.copyOfRange(features, 1, features.length);
+            } else {
+                stale.add(images[i]);
+                staleIndices.add(i);
+            }
+        }
 
-            if (err < maxErr) {
-                closest = index;
-                maxErr = err;
+        ProgressTracker progress = new ProgressTracker(listener, "palette", stale.size(), progressInterval);
+        List<CompletableFuture<Void>> averageTasks = new ArrayList<>();
+        Semaphore readAhead = new Semaphore(READ_AHEAD_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < stale.size(); i++) {
+            File picFile = stale.get(i);
+            int finalCount = staleIndices.get(i);
+
+            try {
+                readAhead.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while generating palette.", e);
             }
 
-            index++;
+            long size = picFile.length();
+            long modified = picFile.lastModified();
+            averageTasks.add(loadOrFail(picFile, PALETTE_DECODE_SIZE, PALETTE_DECODE_SIZE).<Void>handle((pic, e) -> {
+                // images that can't be loaded get a placeholder, but aren't indexed so they're tried again next time
+                boolean loaded = e == null;
+                if (!loaded) {
+                    pic = loadFailed(picFile, e);
+                }
+
+                Color average = avgColor(pic);
+                int[] grid = AverageColor.grid(pic.getBufferedImage(), GRID_SIZE);
+
+                int[] features = new int[1 + grid.length];
+                features[0] = average.getRGB();
+                System.arraycopy(grid, 0, features, 1, grid.length);
+                if (loaded) {
+                    index.put(picFile, size, modified, features);
+                }
+
+                palette[finalCount] = average;
+                tileFeatures[finalCount] = grid;
+                progress.increment();
+                return null;
+            }).whenComplete((ignored, e) -> readAhead.release()));
         }
 
-        return closest;
+        try {
+            CompletableFuture.allOf(averageTasks.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Issue encountered with generating palette.", e);
+        }
+
+        progress.finish();
+        listener.message("Decoded " + averageTasks.size() + " of " + images.length + " images.");
+
+        try {
+            index.save();
+        } catch (IOException e) {
+            listener.message("Could not save palette index " + index.getFile() + ": " + e.getMessage());
+        }
+
+        return new Palette(palette);
     }
 
     public void setPicScl(int picScl) {
@@ -246,26 +736,141 @@ public class Collage {
     }
 
     /**
-     * Finds the average color of a picture.
+     * @param tileCache Cache of scaled tiles, which can be shared between collages using the same images.
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * @param colorIndex Index used to match colors against the palette, built from {@link #getPalette()}.
+     */
+    public void setColorIndex(ColorIndex colorIndex) {
+        this.colorIndex = colorIndex;
+    }
+
+    /**
+     * Matches colors through a precomputed lookup table instead of searching the palette.
+     * The table is saved in the image directory, so it's only built once per palette.
      *
-     * @param pic     Picture to find average color.
-     * @param samples How many pixels to sample for average color.
-     * @return Average color of the picture.
+     * @param bits Bits per channel used to index the table, from 1 to 8. 6 is a good balance of memory and speed,
+     *             8 makes every lookup a single array read but takes 64 MB.
      */
-    public static Color avgColor(Picture pic, int samples) {
-        int r = 0;
-        int g = 0;
-        int b = 0;
+    public void useLookupTable(int bits) {
+        colorIndex = LookupColorIndex.load(directory, palette, bits, executorService, listener);
+    }
 
-        for (int i = 0; i < samples; i++) {
-            Pixel pixel = pic.getPixel((int) (pic.getWidth() * Math.random()), (int) (pic.getHeight() * Math.random()));
+    /**
+     * Matches each cell by the average colors of a grid over it instead of by its single average color, so tiles
+     * can also be told apart by where their colors are. Grids are compared through an approximate nearest neighbor
+     * index, which keeps matching affordable for very large palettes.
+     *
+     * @param probes Clusters of the index to search per cell. More finds the closest tile more often but is slower.
+     */
+    public void useFeatureIndex(int probes) {
+        IvfFeatureIndex index = IvfFeatureIndex.build(tileFeatures, FEATURE_INDEX_SEED, executorService);
+        index.setProbes(probes);
+        featureIndex = index;
+    }
 
-            r += pixel.getRed();
-            g += pixel.getGreen();
-            b += pixel.getBlue();
-        }
+    /**
+     * @param featureIndex Index used to match grids of average colors against the palette, or null to match single
+     *                     colors through the color index.
+     */
+    public void setFeatureIndex(FeatureIndex featureIndex) {
+        this.featureIndex = featureIndex;
+    }
 
-        return new Color(r / samples, g / samples, b / samples);
+    /**
+     * @return Average colors of a grid over each palette image, as RGB ints, row by row.
+     */
+    public int[][] getTileFeatures() {
+        return tileFeatures;
+    }
+
+    /**
+     * Limits how many cells each image may fill, so a few images can't take over large areas of similar color.
+     * Images are then also kept from filling two cells that share an edge, where possible. Cells that can't have
+     * their closest image get the closest one left, with the cells that lose the least by it giving theirs up first.
+     *
+     * @param maxUses Most cells each image may fill, or 0 to always use the closest image. Times the number of
+     *                images, it must be at least the number of cells.
+     */
+    public void setMaxUses(int maxUses) {
+        this.maxUses = Math.max(0, maxUses);
+    }
+
+    /**
+     * @param ditherKernel How the error of each cell is shared out between the cells after it when dithering.
+     */
+    public void setDitherKernel(DitherKernel ditherKernel) {
+        this.ditherKernel = ditherKernel;
+    }
+
+    /**
+     * @param serpentine Whether to dither every other row right to left, which avoids the diagonal patterns of
+     *                   always scanning the same way. Rows are then matched one after another instead of in parallel.
+     */
+    public void setSerpentine(boolean serpentine) {
+        this.serpentine = serpentine;
+    }
+
+    /**
+     * @param listener Receives progress of creating collages.
+     */
+    public void setListener(CollageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param millis Shortest time between progress events sent to the listener.
+     */
+    public void setProgressInterval(long millis) {
+        this.progressInterval = millis * 1_000_000L;
+    }
+
+    /**
+     * @return Width of the collages this makes, in pixels.
+     */
+    public int getCollageWidth() {
+        return source.getWidth() / scl * picScl;
+    }
+
+    /**
+     * @return Height of the collages this makes, in pixels.
+     */
+    public int getCollageHeight() {
+        return source.getHeight() / scl * picScl;
+    }
+
+    public Palette getPalette() {
+        return palette;
+    }
+
+    /**
+     * Finds the exact average color of a picture.
+     *
+     * @param pic Picture to find average color.
+     * @return Average color of the picture.
+     */
+    public static Color avgColor(Picture pic) {
+        return AverageColor.exact(pic.getBufferedImage());
+    }
+
+    /**
+     * Estimates the average color of a picture from a stratified sample of its pixels.
+     * Sampling stops early once the estimate is within a couple of channel values, and always picks the same pixels.
+     *
+     * @param pic     Picture to find average color.
+     * @param samples Most pixels to sample for average color.
+     * @return Average color of the picture.
+     */
+    public static Color avgColor(Picture pic, int samples) {
+        return AverageColor.sampled(pic.getBufferedImage(), samples, SAMPLE_SEED, SAMPLE_TOLERANCE);
     }
 
     /**
@@ -290,4 +895,22 @@ public class Collage {
         return Math.sqrt(2 * dR + 4 * dG + 3 * dB + r * (dR - dB) / 256);
     }
 
-}
\ No newline at end of file
+    private static final class RenderJob {
+        private static final RenderJob END = new RenderJob(-1, -1, -1);
+
+        private final int x;
+        private final int y;
+        private final int index;
+
+        private RenderJob(int x, int y, int index) {
+            this.x = x;
+            this.y = y;
+            this.index = index;
+        }
+    }
+
+    private static final class RenderFailure {
+        private volatile RuntimeException cause;
+    }
+
+}
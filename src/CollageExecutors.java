@@ -0,0 +1,102 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors collages run on, sized from the number of processors.
+ * <p>
+ * Reading files mostly waits on the disk, so it gets many threads: virtual threads where the JVM has them, or
+ * otherwise a pool several times larger than the number of processors. Decoding, scaling and matching keep a
+ * processor busy the whole time, so they get one thread per processor and more would only add switching.
+ */
+public final class CollageExecutors {
+
+    /**
+     * Threads per processor in the I/O pool when there are no virtual threads.
+     */
+    private static final int IO_THREADS_PER_PROCESSOR = 8;
+
+    private static final long IDLE_SECONDS = 30;
+
+    private CollageExecutors() {
+    }
+
+    /**
+     * @return An executor for reading files: one virtual thread per task if the JVM supports them, otherwise a pool
+     * of {@value #IO_THREADS_PER_PROCESSOR} threads per processor that shrinks when idle.
+     */
+    public static ExecutorService newIoExecutor() {
+        if (VirtualThreads.FACTORY != null) {
+            try {
+                return (ExecutorService) VirtualThreads.FACTORY.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // worked when probed, so this shouldn't happen; a platform pool still does the job
+            }
+        }
+
+        int threads = IO_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("collage-io"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return An executor for work that keeps a processor busy, with one thread per processor.
+     */
+    public static ExecutorService newComputeExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("collage-compute"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return Whether {@link #newIoExecutor()} uses virtual threads.
+     */
+    public static boolean hasVirtualThreads() {
+        return VirtualThreads.FACTORY != null;
+    }
+
+    /**
+     * Probes for virtual threads once, the first time an I/O executor is made or asked about. On JDK 19 and 20 the
+     * factory exists but throws unless preview features are enabled, so it has to be called to know it works.
+     */
+    private static final class VirtualThreads {
+
+        /**
+         * {@code Executors.newVirtualThreadPerTaskExecutor}, or null if the JVM can't make virtual threads.
+         */
+        static final Method FACTORY = probe();
+
+        private static Method probe() {
+            try {
+                Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ((ExecutorService) factory.invoke(null)).shutdown();
+                return factory;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+    }
+
+    /**
+     * Daemon threads don't keep the JVM running, so a program doesn't have to shut the executors down to exit.
+     */
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
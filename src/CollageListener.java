@@ -0,0 +1,41 @@
+/**
+ * Receives progress events while a {@link Collage} is being made.
+ * <p>
+ * Progress events are rate limited by {@link ProgressTracker}, so listeners don't have to keep up with every cell.
+ * Methods may be called from any thread. Events of the same stage are never called concurrently, since
+ * {@link ProgressTracker} waits for or skips past a call that hasn't returned, but messages may come at any time.
+ */
+public interface CollageListener {
+
+    /**
+     * Ignores every event.
+     */
+    CollageListener SILENT = new CollageListener() {
+    };
+
+    /**
+     * @param stage Name of the stage, such as "palette" or "collage".
+     * @param total How many items the stage will process.
+     */
+    default void stageStarted(String stage, long total) {
+    }
+
+    /**
+     * @param progress How far the stage has got.
+     */
+    default void progress(Progress progress) {
+    }
+
+    /**
+     * @param progress Final progress of the stage.
+     */
+    default void stageFinished(Progress progress) {
+    }
+
+    /**
+     * @param message Information about the collage, such as cache statistics.
+     */
+    default void message(String message) {
+    }
+
+}
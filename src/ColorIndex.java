@@ -0,0 +1,30 @@
+import java.awt.*;
+
+/**
+ * Finds the closest palette entry to a color, as measured by {@link ColorMetric}.
+ * When several entries are equally close, the one with the lowest index is returned.
+ */
+public interface ColorIndex {
+
+    /**
+     * @return Index of the closest palette entry.
+     */
+    int nearest(int r, int g, int b);
+
+    default int nearest(Color color) {
+        return nearest(color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    /**
+     * Looks up several colors at once.
+     *
+     * @param rgb     Colors packed as RGB ints.
+     * @param indices Where to store the index of the closest entry for each color.
+     */
+    default void nearest(int[] rgb, int[] indices) {
+        for (int i = 0; i < rgb.length; i++) {
+            indices[i] = nearest((rgb[i] >> 16) & 0xff, (rgb[i] >> 8) & 0xff, rgb[i] & 0xff);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Integer form of the weighted Euclidean ("redmean") color difference used by {@link Collage#colorDif(java.awt.Color, java.awt.Color)}.
+ * <p>
+ * {@link #distance} returns 512 times the squared difference. Every term of the original formula is a multiple of
+ * 1/512, so the result is exact and ranks colors exactly the same way {@code colorDif} does, without the square root.
+ * The bounds give the smallest and largest distance from a color to any color in a box, which lets spatial indexes
+ * skip whole regions of the palette.
+ */
+public final class ColorMetric {
+
+    private ColorMetric() {
+    }
+
+    /**
+     * @return 512 times the squared difference between the two colors.
+     */
+    public static int distance(int r1, int g1, int b1, int r2, int g2, int b2) {
+        int dR = (r1 - r2) * (r1 - r2);
+        int dG = (g1 - g2) * (g1 - g2);
+        int dB = (b1 - b2) * (b1 - b2);
+        int r = r1 + r2;
+
+        return (1024 + r) * dR + 2048 * dG + (1536 - r) * dB;
+    }
+
+    /**
+     * @return A value no larger than the distance from the color to any color in the box.
+     */
+    public static int lowerBound(int r, int g, int b, int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        int dR = gap(r, minR, maxR);
+        int dG = gap(g, minG, maxG);
+        int dB = gap(b, minB, maxB);
+
+        return (1024 + r + minR) * dR * dR + 2048 * dG * dG + (1536 - r - maxR) * dB * dB;
+    }
+
+    /**
+     * @return A value no smaller than the distance from the color to any color in the box.
+     */
+    public static int upperBound(int r, int g, int b, int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        int dR = Math.max(Math.abs(r - minR), Math.abs(r - maxR));
+        int dG = Math.max(Math.abs(g - minG), Math.abs(g - maxG));
+        int dB = Math.max(Math.abs(b - minB), Math.abs(b - maxB));
+
+        return (1024 + r + maxR) * dR * dR + 2048 * dG * dG + (1536 - r - minR) * dB * dB;
+    }
+
+    /**
+     * @return A value no larger than the distance from any color in the first box to any color in the second box.
+     */
+    public static int lowerBound(int minR1, int maxR1, int minG1, int maxG1, int minB1, int maxB1,
+                                 int minR2, int maxR2, int minG2, int maxG2, int minB2, int maxB2) {
+        int dR = gap(minR1, maxR1, minR2, maxR2);
+        int dG = gap(minG1, maxG1, minG2, maxG2);
+        int dB = gap(minB1, maxB1, minB2, maxB2);
+
+        return (1024 + minR1 + minR2) * dR * dR + 2048 * dG * dG + (1536 - maxR1 - maxR2) * dB * dB;
+    }
+
+    private static int gap(int min1, int max1, int min2, int max2) {
+        return Math.max(0, Math.max(min2 - max1, min1 - max2));
+    }
+
+    private static int gap(int value, int min, int max) {
+        if (value < min) {
+            return min - value;
+        }
+
+        if (value > max) {
+            return value - max;
+        }
+
+        return 0;
+    }
+
+}
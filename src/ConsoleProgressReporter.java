@@ -0,0 +1,31 @@
+import java.text.DecimalFormat;
+
+/**
+ * Prints collage progress to {@code System.out}.
+ */
+public class ConsoleProgressReporter implements CollageListener {
+
+    private final DecimalFormat percent = new DecimalFormat("0.000");
+    private final DecimalFormat decimal = new DecimalFormat("0.0");
+
+    public synchronized void stageStarted(String stage, long total) {
+        System.out.println("Starting " + stage + " (" + total + " items)...");
+    }
+
+    public synchronized void progress(Progress progress) {
+        System.out.println("Progress: " + percent.format(progress.getFraction() * 100) + "% of " + progress.getStage()
+            + " (" + progress.getCompleted() + " of " + progress.getTotal() + ", "
+            + decimal.format(progress.getThroughput()) + "/s, ETA " + decimal.format(progress.getEtaSeconds()) + " s)");
+    }
+
+    public synchronized void stageFinished(Progress progress) {
+        System.out.println("Finished " + progress.getStage() + ": " + progress.getCompleted() + " items in "
+            + decimal.format(progress.getElapsedNanos() / 1e9) + " s (" + decimal.format(progress.getThroughput())
+            + "/s).");
+    }
+
+    public synchronized void message(String message) {
+        System.out.println(message);
+    }
+
+}
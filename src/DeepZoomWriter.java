@@ -0,0 +1,282 @@
+import classes.BandWriter;
+import classes.DigitalPicture;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes a picture as a Deep Zoom (DZI) tile pyramid, so viewers only have to load the tiles they show.
+ * <p>
+ * The pyramid is written to {@code <name>_files/<level>/<column>_<row>.<format>} with a {@code <name>.dzi}
+ * descriptor next to it. The highest level is the full picture, and each level below is half its size, down to a
+ * single pixel. Tiles are 256 pixels square with no overlap.
+ * <p>
+ * Rows arrive band by band, so only one strip of tiles per level is ever in memory. When a strip is full, its tiles
+ * are encoded on the executor and the strip is downsampled, in parallel, into the next level down. Each level is
+ * therefore made from the one above it rather than from the full picture.
+ */
+public class DeepZoomWriter implements BandWriter {
+
+    public static final int TILE_SIZE = 256;
+
+    private final File directory;
+    private final String name;
+    private final String format;
+    private final int width;
+    private final int height;
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private final Level[] levels;
+    private final ArrayDeque<CompletableFuture<Void>> pendingTiles = new ArrayDeque<>();
+    private int rowsWritten;
+
+    /**
+     * @param directory       Directory to write the pyramid to.
+     * @param name            Name of the descriptor, without its .dzi extension.
+     * @param format          Image format of the tiles, such as "png" or "jpg".
+     * @param width           Width of the picture.
+     * @param height          Height of the picture.
+     * @param executorService Encodes tiles and downsamples strips.
+     */
+    public DeepZoomWriter(File directory, String name, String format, int width, int height,
+                          ExecutorService executorService) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Picture must be at least 1x1, was " + width + "x" + height + ".");
+        }
+
+        this.directory = directory;
+        this.name = name;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.executorService = executorService;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+
+        int maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(width, height) - 1);
+        levels = new Level[maxLevel + 1];
+        for (int level = maxLevel, levelWidth = width, levelHeight = height; level >= 0; level--) {
+            levels[level] = new Level(level, levelWidth, levelHeight);
+            Files.createDirectories(levels[level].directory.toPath());
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+        }
+    }
+
+    /**
+     * Writes a whole picture as a pyramid.
+     *
+     * @param picture         Picture to write.
+     * @param directory       Directory to write the pyramid to.
+     * @param name            Name of the descriptor, without its .dzi extension.
+     * @param format          Image format of the tiles, such as "png" or "jpg".
+     * @param executorService Encodes tiles and downsamples strips.
+     */
+    public static void write(DigitalPicture picture, File directory, String name, String format,
+                             ExecutorService executorService) throws IOException {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        int[] band = new int[width * TILE_SIZE];
+
+        try (DeepZoomWriter writer = new DeepZoomWriter(directory, name, format, width, height, executorService)) {
+            for (int top = 0; top < height; top += TILE_SIZE) {
+                int rows = Math.min(TILE_SIZE, height - top);
+                picture.getBasicPixels(0, top, width, rows, band, 0, width);
+                writer.writeBand(band, 0, width, rows);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Number of levels in the pyramid.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public void writeBand(int[] pixels, int offset, int scansize, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Picture is only " + height + " rows high.");
+        }
+
+        addRows(levels[levels.length - 1], pixels, offset, scansize, rows);
+        rowsWritten += rows;
+    }
+
+    /**
+     * Writes the partly filled strips of every level, waits for the tiles to be written and writes the descriptor.
+     */
+    public void close() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written.");
+        }
+
+        // flushing a level adds rows to the one below it, so go from the top down
+        for (int level = levels.length - 1; level >= 0; level--) {
+            if (levels[level].rows > 0) {
+                finishStrip(levels[level]);
+            }
+        }
+
+        while (!pendingTiles.isEmpty()) {
+            join(pendingTiles.poll());
+        }
+
+        String descriptor = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + TILE_SIZE
+            + "\" Overlap=\"0\" Format=\"" + format + "\">\n"
+            + "    <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n"
+            + "</Image>\n";
+        Files.write(new File(directory, name + ".dzi").toPath(), descriptor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void addRows(Level level, int[] pixels, int offset, int scansize, int rows) throws IOException {
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(pixels, offset + row * scansize, level.strip, level.rows * level.width, level.width);
+            level.rows++;
+
+            if (level.rows == TILE_SIZE) {
+                finishStrip(level);
+            }
+        }
+    }
+
+    /**
+     * Starts writing the tiles of a level's strip and passes it, halved, down to the next level.
+     */
+    private void finishStrip(Level level) throws IOException {
+        for (int column = 0; column * TILE_SIZE < level.width; column++) {
+            int left = column * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, level.width - left);
+            BufferedImage tile = new BufferedImage(tileWidth, level.rows, BufferedImage.TYPE_INT_RGB);
+            tile.setRGB(0, 0, tileWidth, level.rows, level.strip, left, level.width);
+
+            File file = new File(level.directory, column + "_" + level.stripIndex + "." + format);
+            submitTile(tile, file);
+        }
+
+        if (level.level > 0) {
+            Level next = levels[level.level - 1];
+            int[] half = downsample(level.strip, level.width, level.rows, next.width);
+            addRows(next, half, 0, next.width, (level.rows + 1) / 2);
+        }
+
+        level.rows = 0;
+        level.stripIndex++;
+    }
+
+    /**
+     * Queues a tile to be encoded, first waiting for older tiles if too many are queued already, so memory stays
+     * bounded however large the picture is.
+     */
+    private void submitTile(BufferedImage tile, File file) throws IOException {
+        while (pendingTiles.size() >= parallelism * 4) {
+            join(pendingTiles.poll());
+        }
+
+        pendingTiles.add(CompletableFuture.runAsync(() -> {
+            try {
+                if (!ImageIO.write(tile, format, file)) {
+                    throw new IOException("No writer for format " + format + ".");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write tile " + file + ".", e);
+            }
+        }, executorService));
+    }
+
+    /**
+     * Halves a strip in both directions by averaging each 2x2 block of pixels. On odd edges the last row or column
+     * is averaged with itself.
+     *
+     * @return The halved strip, {@code halfWidth} pixels wide.
+     */
+    private int[] downsample(int[] strip, int width, int rows, int halfWidth) {
+        int halfRows = (rows + 1) / 2;
+        int[] half = new int[halfRows * halfWidth];
+        int tasks = Math.min(parallelism, halfRows);
+
+        List<CompletableFuture<Void>> downsampleTasks = new ArrayList<>();
+        for (int task = 0; task < tasks; task++) {
+            int first = task * halfRows / tasks;
+            int last = (task + 1) * halfRows / tasks;
+
+            downsampleTasks.add(CompletableFuture.runAsync(() -> {
+                for (int y = first; y < last; y++) {
+                    int top = 2 * y * width;
+                    int bottom = Math.min(2 * y + 1, rows - 1) * width;
+
+                    for (int x = 0; x < halfWidth; x++) {
+                        int left = 2 * x;
+                        int right = Math.min(2 * x + 1, width - 1);
+                        half[y * halfWidth + x] = average(strip[top + left], strip[top + right],
+                            strip[bottom + left], strip[bottom + right]);
+                    }
+                }
+            }, executorService));
+        }
+
+        try {
+            CompletableFuture.allOf(downsampleTasks.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Issue encountered with downsampling pyramid level.", e.getCause());
+        }
+
+        return half;
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int red = (((a >> 16) & 0xff) + ((b >> 16) & 0xff) + ((c >> 16) & 0xff) + ((d >> 16) & 0xff) + 2) / 4;
+        int green = (((a >> 8) & 0xff) + ((b >> 8) & 0xff) + ((c >> 8) & 0xff) + ((d >> 8) & 0xff) + 2) / 4;
+        int blue = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) / 4;
+
+        return 0xff000000 | red << 16 | green << 8 | blue;
+    }
+
+    private static void join(CompletableFuture<Void> tile) throws IOException {
+        try {
+            tile.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+
+            throw new RuntimeException("Issue encountered with writing pyramid tile.", e.getCause());
+        }
+    }
+
+    private final class Level {
+        private final int level;
+        private final int width;
+        private final File directory;
+        private final int[] strip;
+        private int rows;
+        private int stripIndex;
+
+        private Level(int level, int width, int height) {
+            this.level = level;
+            this.width = width;
+            this.directory = new File(DeepZoomWriter.this.directory, name + "_files" + File.separator + level);
+            this.strip = new int[width * Math.min(TILE_SIZE, height)];
+        }
+    }
+
+}
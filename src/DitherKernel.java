@@ -0,0 +1,110 @@
+/**
+ * Error diffusion kernels: how the error between a cell and its palette entry is shared out between the cells after
+ * it. Each share is given as a column offset, a row offset and a weight, and the weights are divided by the
+ * kernel's divisor.
+ * <p>
+ * Offsets are for rows scanned left to right. Rows scanned right to left use them mirrored.
+ */
+public enum DitherKernel {
+
+    FLOYD_STEINBERG(16,
+        1, 0, 7,
+        -1, 1, 3, 0, 1, 5, 1, 1, 1),
+
+    JARVIS_JUDICE_NINKE(48,
+        1, 0, 7, 2, 0, 5,
+        -2, 1, 3, -1, 1, 5, 0, 1, 7, 1, 1, 5, 2, 1, 3,
+        -2, 2, 1, -1, 2, 3, 0, 2, 5, 1, 2, 3, 2, 2, 1),
+
+    STUCKI(42,
+        1, 0, 8, 2, 0, 4,
+        -2, 1, 2, -1, 1, 4, 0, 1, 8, 1, 1, 4, 2, 1, 2,
+        -2, 2, 1, -1, 2, 2, 0, 2, 4, 1, 2, 2, 2, 2, 1),
+
+    SIERRA(32,
+        1, 0, 5, 2, 0, 3,
+        -2, 1, 2, -1, 1, 4, 0, 1, 5, 1, 1, 4, 2, 1, 2,
+        -1, 2, 2, 0, 2, 3, 1, 2, 2),
+
+    /**
+     * Only shares out three quarters of the error, which keeps more contrast but loses detail in the darkest and
+     * lightest areas.
+     */
+    ATKINSON(8,
+        1, 0, 1, 2, 0, 1,
+        -1, 1, 1, 0, 1, 1, 1, 1, 1,
+        0, 2, 1);
+
+    private final int[] columns;
+    private final int[] rows;
+    private final float[] shares;
+    private final int depth;
+    private final int reach;
+
+    /**
+     * @param divisor Sum the weights are divided by.
+     * @param taps    Column offset, row offset and weight of each share, one after the other.
+     */
+    DitherKernel(int divisor, int... taps) {
+        int size = taps.length / 3;
+        columns = new int[size];
+        rows = new int[size];
+        shares = new float[size];
+
+        int depth = 0;
+        int reach = 0;
+        for (int i = 0; i < size; i++) {
+            columns[i] = taps[i * 3];
+            rows[i] = taps[i * 3 + 1];
+            shares[i] = (float) taps[i * 3 + 2] / divisor;
+            depth = Math.max(depth, rows[i]);
+            reach = Math.max(reach, Math.abs(columns[i]));
+        }
+
+        this.depth = depth;
+        this.reach = reach;
+    }
+
+    /**
+     * @return Number of shares.
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * @return Column offset of a share, for rows scanned left to right.
+     */
+    public int getColumn(int i) {
+        return columns[i];
+    }
+
+    /**
+     * @return Row offset of a share.
+     */
+    public int getRow(int i) {
+        return rows[i];
+    }
+
+    /**
+     * @return Fraction of the error given by a share.
+     */
+    public float getShare(int i) {
+        return shares[i];
+    }
+
+    /**
+     * @return Most rows below the current one that error is shared out to.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return Most columns to either side that error is shared out to.
+     */
+    public int getReach() {
+        return reach;
+    }
+
+}
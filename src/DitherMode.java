@@ -0,0 +1,44 @@
+/**
+ * Ways of dithering a collage, so areas between the colors of the palette come out as a mix of tiles instead of the
+ * single closest one.
+ */
+public enum DitherMode {
+
+    /**
+     * Matches every cell by its own color.
+     */
+    NONE,
+
+    /**
+     * Shares the error of each cell out between the cells after it, through a {@link DitherKernel}. Gives the best
+     * likeness, but each row depends on the one above, so rows can only be matched partly in parallel.
+     */
+    ERROR_DIFFUSION,
+
+    /**
+     * Offsets each cell by an 8x8 Bayer matrix. Every cell can be matched on its own, but gives a regular
+     * crosshatch pattern.
+     */
+    BAYER,
+
+    /**
+     * Offsets each cell by a 64x64 blue noise mask. Every cell can be matched on its own, and the pattern looks like
+     * fine grain.
+     */
+    BLUE_NOISE;
+
+    /**
+     * @return Thresholds to offset cells by, or null if the mode doesn't use any.
+     */
+    public ThresholdMatrix getThresholds() {
+        switch (this) {
+            case BAYER:
+                return ThresholdMatrix.bayer();
+            case BLUE_NOISE:
+                return ThresholdMatrix.blueNoise();
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+/**
+ * Finds the palette entry whose grid of average colors is closest to a query grid. Distance is the sum of the
+ * {@link ColorMetric} distances between matching cells.
+ */
+public interface FeatureIndex {
+
+    /**
+     * @param features Average color of each grid cell as an RGB int, row by row.
+     * @return Index of the closest palette entry found.
+     */
+    int nearest(int[] features);
+
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Approximate nearest neighbor index over grids of average colors, as an inverted file: the entries are clustered
+ * with k-means, and a query only compares exactly against the entries of the clusters whose centers are closest to
+ * it.
+ * <p>
+ * The number of clusters searched ({@link #setProbes}) trades speed for recall. Searching every cluster gives the
+ * same result as comparing against every entry. With about the square root of the number of entries as clusters,
+ * each probe costs roughly one square root's worth of comparisons, so large palettes stay affordable.
+ */
+public class IvfFeatureIndex implements FeatureIndex {
+
+    public static final int DEFAULT_PROBES = 8;
+
+    private static final int ITERATIONS = 10;
+
+    /**
+     * Entries sampled per cluster to train the cluster centers on.
+     */
+    private static final int TRAINING_SIZE = 64;
+
+    /**
+     * Weights on the squared channel differences used to compare against cluster centers. They are the average
+     * weights of {@link ColorMetric}, which is close enough for choosing clusters to search.
+     */
+    private static final float RED_WEIGHT = 2, GREEN_WEIGHT = 4, BLUE_WEIGHT = 3;
+
+    private final int cells;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final int clusters;
+    private final float[] centers;
+    private final int[] clusterStart;
+    private final int[] clusterEntries;
+    private volatile int probes = DEFAULT_PROBES;
+
+    private IvfFeatureIndex(int cells, int[] red, int[] green, int[] blue, int clusters, float[] centers,
+                            int[] clusterStart, int[] clusterEntries) {
+        this.cells = cells;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.clusters = clusters;
+        this.centers = centers;
+        this.clusterStart = clusterStart;
+        this.clusterEntries = clusterEntries;
+    }
+
+    /**
+     * Builds the index with about the square root of the number of entries as clusters.
+     *
+     * @param features Grid of average colors of each palette entry, as RGB ints. All grids must be the same size.
+     * @param seed     Seed for picking the entries to train on, so the same palette always gives the same index.
+     * @param executor Runs the clustering.
+     * @return The index.
+     */
+    public static IvfFeatureIndex build(int[][] features, long seed, ExecutorService executor) {
+        return build(features, (int) Math.round(Math.sqrt(features.length)), seed, executor);
+    }
+
+    /**
+     * @param features Grid of average colors of each palette entry, as RGB ints. All grids must be the same size.
+     * @param clusters Number of clusters to divide the entries into.
+     * @param seed     Seed for picking the entries to train on, so the same palette always gives the same index.
+     * @param executor Runs the clustering.
+     * @return The index.
+     */
+    public static IvfFeatureIndex build(int[][] features, int clusters, long seed, ExecutorService executor) {
+        int size = features.length;
+        int cells = size == 0 ? 0 : features[0].length;
+        int dims = cells * 3;
+        clusters = Math.max(1, Math.min(clusters, size));
+
+        int[] red = new int[size * cells], green = new int[size * cells], blue = new int[size * cells];
+        float[] points = new float[size * dims];
+        for (int i = 0; i < size; i++) {
+            if (features[i].length != cells) {
+                throw new IllegalArgumentException("Entry " + i + " has " + features[i].length + " cells, expected "
+                    + cells + ".");
+            }
+
+            for (int c = 0; c < cells; c++) {
+                int rgb = features[i][c];
+                red[i * cells + c] = (rgb >> 16) & 0xff;
+                green[i * cells + c] = (rgb >> 8) & 0xff;
+                blue[i * cells + c] = rgb & 0xff;
+                points[i * dims + c * 3] = red[i * cells + c];
+                points[i * dims + c * 3 + 1] = green[i * cells + c];
+                points[i * dims + c * 3 + 2] = blue[i * cells + c];
+            }
+        }
+
+        // train on a random sample, starting from its first entries as centers
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        int trainingSize = Math.min(size, clusters * TRAINING_SIZE);
+        for (int i = 0; i < trainingSize; i++) {
+            int j = i + random.nextInt(size - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        int[] training = Arrays.copyOf(order, trainingSize);
+
+        float[] centers = new float[clusters * dims];
+        for (int k = 0; k < clusters && size > 0; k++) {
+            System.arraycopy(points, training[k] * dims, centers, k * dims, dims);
+        }
+
+        int[] assignment = new int[trainingSize];
+        for (int iteration = 0; iteration < ITERATIONS && size > 0; iteration++) {
+            assign(points, dims, training, centers, clusters, assignment, executor);
+
+            float[] sums = new float[clusters * dims];
+            int[] counts = new int[clusters];
+            for (int i = 0; i < trainingSize; i++) {
+                int k = assignment[i];
+                counts[k]++;
+                for (int d = 0; d < dims; d++) {
+                    sums[k * dims + d] += points[training[i] * dims + d];
+                }
+            }
+
+            // clusters left empty keep their old center
+            for (int k = 0; k < clusters; k++) {
+                for (int d = 0; d < dims && counts[k] > 0; d++) {
+                    centers[k * dims + d] = sums[k * dims + d] / counts[k];
+                }
+            }
+        }
+
+        int[] all = new int[size];
+        int[] clusterOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = i;
+        }
+        assign(points, dims, all, centers, clusters, clusterOf, executor);
+
+        int[] clusterStart = new int[clusters + 1];
+        for (int k : clusterOf) {
+            clusterStart[k + 1]++;
+        }
+        for (int k = 0; k < clusters; k++) {
+            clusterStart[k + 1] += clusterStart[k];
+        }
+        int[] clusterEntries = new int[size];
+        int[] next = Arrays.copyOf(clusterStart, clusters);
+        for (int i = 0; i < size; i++) {
+            clusterEntries[next[clusterOf[i]]++] = i;
+        }
+
+        return new IvfFeatureIndex(cells, red, green, blue, clusters, centers, clusterStart, clusterEntries);
+    }
+
+    /**
+     * Finds the closest center to each of the given points, splitting the points between tasks on the executor.
+     */
+    private static void assign(float[] points, int dims, int[] ids, float[] centers, int clusters, int[] assignment,
+                               ExecutorService executor) {
+        int tasks = Math.max(1, Math.min(ids.length / 1024, Runtime.getRuntime().availableProcessors()));
+
+        List<CompletableFuture<Void>> assignTasks = new ArrayList<>();
+        for (int task = 0; task < tasks; task++) {
+            int first = task * ids.length / tasks;
+            int last = (task + 1) * ids.length / tasks;
+
+            assignTasks.add(CompletableFuture.runAsync(() -> {
+                for (int i = first; i < last; i++) {
+                    int best = 0;
+                    float bestDistance = Float.MAX_VALUE;
+
+                    for (int k = 0; k < clusters; k++) {
+                        float distance = centerDistance(points, ids[i] * dims, centers, k * dims, dims);
+                        if (distance < bestDistance) {
+                            best = k;
+                            bestDistance = distance;
+                        }
+                    }
+
+                    assignment[i] = best;
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(assignTasks.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Issue encountered with clustering palette features.", e);
+        }
+    }
+
+    private static float centerDistance(float[] points, int point, float[] centers, int center, int dims) {
+        float distance = 0;
+
+        for (int d = 0; d < dims; d += 3) {
+            float dR = points[point + d] - centers[center + d];
+            float dG = points[point + d + 1] - centers[center + d + 1];
+            float dB = points[point + d + 2] - centers[center + d + 2];
+            distance += RED_WEIGHT * dR * dR + GREEN_WEIGHT * dG * dG + BLUE_WEIGHT * dB * dB;
+        }
+
+        return distance;
+    }
+
+    public int nearest(int[] features) {
+        if (features.length != cells) {
+            throw new IllegalArgumentException("Expected " + cells + " cells, got " + features.length + ".");
+        }
+
+        if (clusterEntries.length == 0) {
+            return -1;
+        }
+
+        int dims = cells * 3;
+        float[] query = new float[dims];
+        for (int c = 0; c < cells; c++) {
+            query[c * 3] = (features[c] >> 16) & 0xff;
+            query[c * 3 + 1] = (features[c] >> 8) & 0xff;
+            query[c * 3 + 2] = features[c] & 0xff;
+        }
+
+        // distances are never negative, so their float bits sort in the same order as the distances
+        long[] order = new long[clusters];
+        for (int k = 0; k < clusters; k++) {
+            order[k] = (long) Float.floatToIntBits(centerDistance(query, 0, centers, k * dims, dims)) << 32 | k;
+        }
+        int searched = Math.min(probes, clusters);
+        if (searched < clusters) {
+            Arrays.sort(order);
+        }
+
+        long bestDistance = Long.MAX_VALUE;
+        int best = -1;
+        for (int p = 0; p < searched; p++) {
+            int k = (int) order[p];
+
+            for (int e = clusterStart[k]; e < clusterStart[k + 1]; e++) {
+                int entry = clusterEntries[e];
+                long distance = distance(features, entry, bestDistance);
+
+                if (distance < bestDistance || distance == bestDistance && entry < best) {
+                    best = entry;
+                    bestDistance = distance;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return The distance between the query and an entry, or any value over the limit once it's known to be over.
+     */
+    private long distance(int[] features, int entry, long limit) {
+        long distance = 0;
+
+        for (int c = 0, i = entry * cells; c < cells && distance <= limit; c++, i++) {
+            int rgb = features[c];
+            distance += ColorMetric.distance((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff,
+                red[i], green[i], blue[i]);
+        }
+
+        return distance;
+    }
+
+    /**
+     * @param probes Number of clusters to search for each query, from 1 to {@link #getClusters()}. More finds the
+     *               closest entry more often, but takes longer.
+     */
+    public void setProbes(int probes) {
+        this.probes = Math.max(1, probes);
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    public int getClusters() {
+        return clusters;
+    }
+
+    public int size() {
+        return clusterEntries.length;
+    }
+
+}
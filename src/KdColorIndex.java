@@ -0,0 +1,372 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * k-d tree over the palette's RGB values.
+ * <p>
+ * The tree is stored implicitly in flat arrays: each range of entries is split at its median along the channel with
+ * the widest spread, and the median entry is the node for that range. Searches keep track of the box of colors a
+ * subtree can contain and skip it when {@link ColorMetric#lowerBound} shows it can't hold anything closer than the
+ * best match so far, so results are exactly those of a linear scan.
+ */
+public class KdColorIndex implements ColorIndex {
+
+    private static final int LEAF_SIZE = 8;
+
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final int[] index;
+    private final byte[] axis;
+
+    public KdColorIndex(Palette palette) {
+        int size = palette.size();
+        red = new int[size];
+        green = new int[size];
+        blue = new int[size];
+        index = new int[size];
+        axis = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            red[i] = palette.getRed(i);
+            green[i] = palette.getGreen(i);
+            blue[i] = palette.getBlue(i);
+            index[i] = i;
+        }
+
+        build(0, size, new long[size]);
+    }
+
+    /**
+     * Arranges the entries in [lo, hi) so the median along the widest channel sits in the middle, with smaller
+     * values before it and larger values after it, then does the same for both halves.
+     */
+    private void build(int lo, int hi, long[] keys) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+
+        int splitAxis = widestAxis(lo, hi);
+        int[] channel = channel(splitAxis);
+
+        for (int i = lo; i < hi; i++) {
+            keys[i] = (long) channel[i] << 32 | i;
+        }
+        Arrays.sort(keys, lo, hi);
+
+        int[] r = new int[hi - lo], g = new int[hi - lo], b = new int[hi - lo], idx = new int[hi - lo];
+        for (int i = lo; i < hi; i++) {
+            int from = (int) keys[i];
+            r[i - lo] = red[from];
+            g[i - lo] = green[from];
+            b[i - lo] = blue[from];
+            idx[i - lo] = index[from];
+        }
+        System.arraycopy(r, 0, red, lo, r.length);
+        System.arraycopy(g, 0, green, lo, g.length);
+        System.arraycopy(b, 0, blue, lo, b.length);
+        System.arraycopy(idx, 0, index, lo, idx.length);
+
+        int mid = (lo + hi) >>> 1;
+        axis[mid] = (byte) splitAxis;
+
+        build(lo, mid, keys);
+        build(mid + 1, hi, keys);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        int best = 0;
+        int bestSpread = -1;
+
+        for (int a = 0; a < 3; a++) {
+            int[] channel = channel(a);
+            int min = 255, max = 0;
+
+            for (int i = lo; i < hi; i++) {
+                min = Math.min(min, channel[i]);
+                max = Math.max(max, channel[i]);
+            }
+
+            if (max - min > bestSpread) {
+                best = a;
+                bestSpread = max - min;
+            }
+        }
+
+        return best;
+    }
+
+    private int[] channel(int a) {
+        return a == 0 ? red : a == 1 ? green : blue;
+    }
+
+    public int nearest(int r, int g, int b) {
+        if (index.length == 0) {
+            return -1;
+        }
+
+        return (int) search(r, g, b, 0, index.length, Long.MAX_VALUE, 0, 255, 0, 255, 0, 255);
+    }
+
+    /**
+     * Searches the entries in [lo, hi), whose colors all lie within the given box.
+     * Matches are packed as distance (high 32 bits) and palette index (low 32 bits), so comparing them as longs
+     * prefers the lower index when distances are equal.
+     *
+     * @return The better of the best match so far and the best match in the range.
+     */
+    private long search(int r, int g, int b, int lo, int hi, long best,
+                        int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        if (ColorMetric.lowerBound(r, g, b, minR, maxR, minG, maxG, minB, maxB) > (int) (best >>> 32)) {
+            return best;
+        }
+
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                best = Math.min(best, match(r, g, b, i));
+            }
+
+            return best;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        best = Math.min(best, match(r, g, b, mid));
+
+        switch (axis[mid]) {
+            case 0:
+                int splitR = red[mid];
+                if (r < splitR) {
+                    best = search(r, g, b, lo, mid, best, minR, splitR, minG, maxG, minB, maxB);
+                    best = search(r, g, b, mid + 1, hi, best, splitR, maxR, minG, maxG, minB, maxB);
+                } else {
+                    best = search(r, g, b, mid + 1, hi, best, splitR, maxR, minG, maxG, minB, maxB);
+                    best = search(r, g, b, lo, mid, best, minR, splitR, minG, maxG, minB, maxB);
+                }
+                break;
+            case 1:
+                int splitG = green[mid];
+                if (g < splitG) {
+                    best = search(r, g, b, lo, mid, best, minR, maxR, minG, splitG, minB, maxB);
+                    best = search(r, g, b, mid + 1, hi, best, minR, maxR, splitG, maxG, minB, maxB);
+                } else {
+                    best = search(r, g, b, mid + 1, hi, best, minR, maxR, splitG, maxG, minB, maxB);
+                    best = search(r, g, b, lo, mid, best, minR, maxR, minG, splitG, minB, maxB);
+                }
+                break;
+            default:
+                int splitB = blue[mid];
+                if (b < splitB) {
+                    best = search(r, g, b, lo, mid, best, minR, maxR, minG, maxG, minB, splitB);
+                    best = search(r, g, b, mid + 1, hi, best, minR, maxR, minG, maxG, splitB, maxB);
+                } else {
+                    best = search(r, g, b, mid + 1, hi, best, minR, maxR, minG, maxG, splitB, maxB);
+                    best = search(r, g, b, lo, mid, best, minR, maxR, minG, maxG, minB, splitB);
+                }
+                break;
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds the closest palette entries to a color.
+     *
+     * @param k       Most entries to find.
+     * @param indices Where to store the entries, closest first. Equally close entries are in order of index.
+     * @return Number of entries found, which is k unless the palette is smaller.
+     */
+    public int nearest(int r, int g, int b, int k, int[] indices) {
+        return nearest(r, g, b, k, indices, entry -> false);
+    }
+
+    /**
+     * Finds the closest palette entries to a color, leaving out some entries.
+     *
+     * @param k       Most entries to find.
+     * @param indices Where to store the entries, closest first. Equally close entries are in order of index.
+     * @param exclude Tests whether to leave out an entry, by index.
+     * @return Number of entries found, which is k unless fewer entries are left.
+     */
+    public int nearest(int r, int g, int b, int k, int[] indices, IntPredicate exclude) {
+        k = Math.min(k, index.length);
+        if (k <= 0) {
+            return 0;
+        }
+
+        // max-heap of the best matches so far, packed like in search, so the worst one is on top
+        long[] heap = new long[k];
+        int size = kSearch(r, g, b, 0, index.length, heap, 0, exclude, 0, 255, 0, 255, 0, 255);
+
+        Arrays.sort(heap, 0, size);
+        for (int i = 0; i < size; i++) {
+            indices[i] = (int) heap[i];
+        }
+
+        return size;
+    }
+
+    /**
+     * Adds the entries in [lo, hi) that are better than the worst match kept so far to the heap.
+     *
+     * @return Number of matches in the heap.
+     */
+    private int kSearch(int r, int g, int b, int lo, int hi, long[] heap, int size, IntPredicate exclude,
+                        int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        if (size == heap.length
+            && ColorMetric.lowerBound(r, g, b, minR, maxR, minG, maxG, minB, maxB) > (int) (heap[0] >>> 32)) {
+            return size;
+        }
+
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                if (!exclude.test(index[i])) {
+                    size = offer(heap, size, match(r, g, b, i));
+                }
+            }
+
+            return size;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        if (!exclude.test(index[mid])) {
+            size = offer(heap, size, match(r, g, b, mid));
+        }
+
+        switch (axis[mid]) {
+            case 0:
+                int splitR = red[mid];
+                if (r < splitR) {
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, splitR, minG, maxG, minB, maxB);
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, splitR, maxR, minG, maxG, minB, maxB);
+                } else {
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, splitR, maxR, minG, maxG, minB, maxB);
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, splitR, minG, maxG, minB, maxB);
+                }
+                break;
+            case 1:
+                int splitG = green[mid];
+                if (g < splitG) {
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, maxR, minG, splitG, minB, maxB);
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, minR, maxR, splitG, maxG, minB, maxB);
+                } else {
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, minR, maxR, splitG, maxG, minB, maxB);
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, maxR, minG, splitG, minB, maxB);
+                }
+                break;
+            default:
+                int splitB = blue[mid];
+                if (b < splitB) {
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, maxR, minG, maxG, minB, splitB);
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, minR, maxR, minG, maxG, splitB, maxB);
+                } else {
+                    size = kSearch(r, g, b, mid + 1, hi, heap, size, exclude, minR, maxR, minG, maxG, splitB, maxB);
+                    size = kSearch(r, g, b, lo, mid, heap, size, exclude, minR, maxR, minG, maxG, minB, splitB);
+                }
+                break;
+        }
+
+        return size;
+    }
+
+    /**
+     * Adds a match to a max-heap of at most {@code heap.length} matches, dropping the worst if it is full.
+     *
+     * @return New number of matches in the heap.
+     */
+    private static int offer(long[] heap, int size, long match) {
+        int i;
+
+        if (size < heap.length) {
+            i = size++;
+            while (i > 0 && heap[(i - 1) / 2] < match) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+        } else if (match < heap[0]) {
+            i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= match) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+        } else {
+            return size;
+        }
+
+        heap[i] = match;
+        return size;
+    }
+
+    /**
+     * Finds every palette entry that could be within a distance of any color in a box.
+     *
+     * @param limit    Largest distance of interest.
+     * @param consumer Receives the palette index of each entry whose {@link ColorMetric#lowerBound} to the box is at
+     *                 most the limit, in no particular order.
+     */
+    public void within(int minR, int maxR, int minG, int maxG, int minB, int maxB, int limit, IntConsumer consumer) {
+        within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, 0, index.length, 0, 255, 0, 255, 0, 255);
+    }
+
+    private void within(int minR, int maxR, int minG, int maxG, int minB, int maxB, int limit, IntConsumer consumer,
+                        int lo, int hi, int treeMinR, int treeMaxR, int treeMinG, int treeMaxG, int treeMinB, int treeMaxB) {
+        if (lo >= hi || ColorMetric.lowerBound(minR, maxR, minG, maxG, minB, maxB,
+            treeMinR, treeMaxR, treeMinG, treeMaxG, treeMinB, treeMaxB) > limit) {
+            return;
+        }
+
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                accept(minR, maxR, minG, maxG, minB, maxB, limit, consumer, i);
+            }
+
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        accept(minR, maxR, minG, maxG, minB, maxB, limit, consumer, mid);
+
+        switch (axis[mid]) {
+            case 0:
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, lo, mid,
+                    treeMinR, red[mid], treeMinG, treeMaxG, treeMinB, treeMaxB);
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, mid + 1, hi,
+                    red[mid], treeMaxR, treeMinG, treeMaxG, treeMinB, treeMaxB);
+                break;
+            case 1:
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, lo, mid,
+                    treeMinR, treeMaxR, treeMinG, green[mid], treeMinB, treeMaxB);
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, mid + 1, hi,
+                    treeMinR, treeMaxR, green[mid], treeMaxG, treeMinB, treeMaxB);
+                break;
+            default:
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, lo, mid,
+                    treeMinR, treeMaxR, treeMinG, treeMaxG, treeMinB, blue[mid]);
+                within(minR, maxR, minG, maxG, minB, maxB, limit, consumer, mid + 1, hi,
+                    treeMinR, treeMaxR, treeMinG, treeMaxG, blue[mid], treeMaxB);
+                break;
+        }
+    }
+
+    private void accept(int minR, int maxR, int minG, int maxG, int minB, int maxB, int limit, IntConsumer consumer,
+                        int i) {
+        if (ColorMetric.lowerBound(red[i], green[i], blue[i], minR, maxR, minG, maxG, minB, maxB) <= limit) {
+            consumer.accept(index[i]);
+        }
+    }
+
+    private long match(int r, int g, int b, int i) {
+        return (long) ColorMetric.distance(r, g, b, red[i], green[i], blue[i]) << 32 | index[i];
+    }
+
+}
@@ -0,0 +1,26 @@
+/**
+ * Compares a color against every palette entry. Only worth using for small palettes.
+ */
+public class LinearColorIndex implements ColorIndex {
+
+    private final Palette palette;
+    private final ThreadLocal<int[]> distances;
+
+    public LinearColorIndex(Palette palette) {
+        this.palette = palette;
+        this.distances = ThreadLocal.withInitial(() -> new int[palette.size()]);
+    }
+
+    public int nearest(int r, int g, int b) {
+        return palette.nearest(r, g, b, distances.get());
+    }
+
+    public void nearest(int[] rgb, int[] indices) {
+        int[] scratch = distances.get();
+
+        for (int i = 0; i < rgb.length; i++) {
+            indices[i] = palette.nearest((rgb[i] >> 16) & 0xff, (rgb[i] >> 8) & 0xff, rgb[i] & 0xff, scratch);
+        }
+    }
+
+}
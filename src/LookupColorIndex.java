@@ -0,0 +1,419 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Dense table from RGB color to closest palette entry.
+ * <p>
+ * The color cube is divided into cells of {@code 2^(8 - bits)} values per channel. Cells where a single palette
+ * entry is closest to every color store that entry, so the lookup is a single array read. Other cells store a short
+ * list of candidates, found with {@link ColorMetric} bounds, which are compared exactly. With 8 bits every color has
+ * its own cell and every lookup is a single read. Results always match {@link KdColorIndex}.
+ */
+public class LookupColorIndex implements ColorIndex {
+
+    public static final String FILE_NAME = ".palette.lut";
+
+    private static final int MAGIC = 0x504C4C54;
+    private static final int VERSION = 1;
+
+    private final int bits;
+    private final int shift;
+    private final Palette palette;
+
+    /**
+     * For each cell, the closest palette index if there's only one, or otherwise the negated offset of its first
+     * candidate in {@link #lists}.
+     */
+    private final int[] table;
+
+    /**
+     * Candidate lists for unresolved cells, each stored as its length followed by palette indices in ascending order.
+     */
+    private final int[] lists;
+
+    private LookupColorIndex(Palette palette, int bits, int[] table, int[] lists) {
+        this.bits = bits;
+        this.shift = 8 - bits;
+        this.palette = palette;
+        this.table = table;
+        this.lists = lists;
+    }
+
+    public int nearest(int r, int g, int b) {
+        int entry = table[((r >> shift) << bits | (g >> shift)) << bits | (b >> shift)];
+
+        if (entry >= 0) {
+            return entry;
+        }
+
+        int start = -entry;
+        int end = start + lists[start - 1];
+        int minErr = Integer.MAX_VALUE;
+        int closest = -1;
+
+        for (int i = start; i < end; i++) {
+            int candidate = lists[i];
+            int err = palette.distance(candidate, r, g, b);
+
+            if (err < minErr) {
+                closest = candidate;
+                minErr = err;
+            }
+        }
+
+        return closest;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return Fraction of cells that resolve to a palette entry with a single read.
+     */
+    public double getResolvedFraction() {
+        int resolved = 0;
+        for (int entry : table) {
+            if (entry >= 0) {
+                resolved++;
+            }
+        }
+
+        return (double) resolved / table.length;
+    }
+
+    /**
+     * Loads the table for a palette from the directory it came from, or builds it and saves it there if there is
+     * no table yet or it was made for a different palette.
+     *
+     * @param directory Directory of the palette's images.
+     * @param palette   Palette to match against.
+     * @param bits      Bits per channel used to index the table, from 1 to 8.
+     * @param executor  Runs the build.
+     * @param listener  Told when an unreadable table is ignored or the table can't be saved.
+     * @return The table.
+     */
+    public static LookupColorIndex load(File directory, Palette palette, int bits, ExecutorService executor,
+                                        CollageListener listener) {
+        File file = new File(directory, FILE_NAME);
+
+        if (file.isFile()) {
+            try {
+                LookupColorIndex index = read(file, palette, bits);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException | RuntimeException e) {
+                listener.message("Ignoring unreadable lookup table " + file + ": " + e);
+            }
+        }
+
+        LookupColorIndex index = build(palette, bits, executor);
+
+        try {
+            index.save(file, palette);
+        } catch (IOException e) {
+            listener.message("Could not save lookup table " + file + ": " + e.getMessage());
+        }
+
+        return index;
+    }
+
+    /**
+     * Builds the table, splitting the cells between tasks on the executor.
+     *
+     * @param palette  Palette to match against.
+     * @param bits     Bits per channel used to index the table, from 1 to 8.
+     * @param executor Runs the build.
+     * @return The table.
+     */
+    public static LookupColorIndex build(Palette palette, int bits, ExecutorService executor) {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("Bits per channel must be between 1 and 8, was " + bits + ".");
+        }
+
+        KdColorIndex tree = new KdColorIndex(palette);
+        int side = 1 << bits;
+        int[] table = new int[side * side * side];
+        int[][] partLists = new int[side][];
+
+        List<CompletableFuture<Void>> buildTasks = new ArrayList<>();
+        for (int cellR = 0; cellR < side; cellR++) {
+            int finalCellR = cellR;
+            buildTasks.add(CompletableFuture.runAsync(
+                () -> partLists[finalCellR] = buildSlice(palette, tree, bits, finalCellR, table), executor));
+        }
+
+        try {
+            CompletableFuture.allOf(buildTasks.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Issue encountered with building lookup table.", e);
+        }
+
+        int length = 0;
+        for (int[] part : partLists) {
+            length += part.length;
+        }
+
+        int[] lists = new int[length];
+        int offset = 0;
+        for (int cellR = 0; cellR < side; cellR++) {
+            int[] part = partLists[cellR];
+            System.arraycopy(part, 0, lists, offset, part.length);
+
+            for (int cell = cellR * side * side; cell < (cellR + 1) * side * side; cell++) {
+                if (table[cell] < 0) {
+                    table[cell] -= offset;
+                }
+            }
+
+            offset += part.length;
+        }
+
+        return new LookupColorIndex(palette, bits, table, lists);
+    }
+
+    /**
+     * Fills in the cells with the given red coordinate.
+     *
+     * @return Candidate lists for the slice, with offsets in the table relative to the start of the slice.
+     */
+    private static int[] buildSlice(Palette palette, KdColorIndex tree, int bits, int cellR, int[] table) {
+        int shift = 8 - bits;
+        int side = 1 << bits;
+        int size = 1 << shift;
+        IntList lists = new IntList();
+        IntList candidates = new IntList();
+
+        int minR = cellR << shift, maxR = minR + size - 1;
+        for (int cellG = 0; cellG < side; cellG++) {
+            int minG = cellG << shift, maxG = minG + size - 1;
+
+            for (int cellB = 0; cellB < side; cellB++) {
+                int minB = cellB << shift, maxB = minB + size - 1;
+                int cell = (cellR * side + cellG) * side + cellB;
+
+                int center = tree.nearest(minR + size / 2, minG + size / 2, minB + size / 2);
+                if (size == 1) {
+                    table[cell] = center;
+                    continue;
+                }
+
+                candidates.clear();
+                tree.within(minR, maxR, minG, maxG, minB, maxB, upperBound(palette, center, minR, maxR, minG, maxG,
+                    minB, maxB), candidates::add);
+
+                int limit = Integer.MAX_VALUE;
+                for (int i = 0; i < candidates.size; i++) {
+                    limit = Math.min(limit, upperBound(palette, candidates.values[i], minR, maxR, minG, maxG, minB,
+                        maxB));
+                }
+
+                int kept = 0;
+                for (int i = 0; i < candidates.size; i++) {
+                    int candidate = candidates.values[i];
+                    if (ColorMetric.lowerBound(palette.getRed(candidate), palette.getGreen(candidate),
+                        palette.getBlue(candidate), minR, maxR, minG, maxG, minB, maxB) <= limit) {
+                        candidates.values[kept++] = candidates.values[i];
+                    }
+                }
+                candidates.size = kept;
+
+                if (kept == 1) {
+                    table[cell] = candidates.values[0];
+                } else {
+                    Arrays.sort(candidates.values, 0, kept);
+                    lists.add(kept);
+                    table[cell] = -lists.size;
+                    for (int i = 0; i < kept; i++) {
+                        lists.add(candidates.values[i]);
+                    }
+                }
+            }
+        }
+
+        return Arrays.copyOf(lists.values, lists.size);
+    }
+
+    private static int upperBound(Palette palette, int i, int minR, int maxR, int minG, int maxG, int minB, int maxB) {
+        return ColorMetric.upperBound(palette.getRed(i), palette.getGreen(i), palette.getBlue(i), minR, maxR, minG,
+            maxG, minB, maxB);
+    }
+
+    /**
+     * Reads a table saved by {@link #save}. Lookups need the whole table on the heap anyway, so the file is read
+     * straight into it rather than mapped.
+     *
+     * @return The table, or null if it was made for a different palette or number of bits.
+     * @throws IOException If the file can't be read, or is truncated or corrupt.
+     */
+    public static LookupColorIndex read(File file, Palette palette, int bits) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(32);
+            read(channel, header);
+            header.flip();
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != bits
+                || header.getInt() != palette.size() || header.getLong() != hash(palette)) {
+                return null;
+            }
+
+            int tableLength = header.getInt();
+            int listsLength = header.getInt();
+            if (tableLength != 1 << (3 * bits) || listsLength < 0
+                || channel.size() != header.capacity() + ((long) tableLength + listsLength) * Integer.BYTES) {
+                throw new IOException("Lookup table " + file + " has the wrong size.");
+            }
+
+            int[] table = new int[tableLength];
+            int[] lists = new int[listsLength];
+            read(channel, table);
+            read(channel, lists);
+            validate(file, palette.size(), table, lists);
+
+            return new LookupColorIndex(palette, bits, table, lists);
+        }
+    }
+
+    /**
+     * Checks that every cell of a table read from a file leads to palette entries, so a corrupt file fails here
+     * instead of in the middle of matching.
+     */
+    private static void validate(File file, int size, int[] table, int[] lists) throws IOException {
+        for (int entry : table) {
+            if (entry >= size) {
+                throw new IOException("Lookup table " + file + " has an entry outside the palette.");
+            }
+            if (entry >= 0) {
+                continue;
+            }
+
+            long start = -(long) entry;
+            if (start - 1 >= lists.length) {
+                throw new IOException("Lookup table " + file + " has a list outside the file.");
+            }
+
+            int length = lists[(int) start - 1];
+            if (length < 1 || start + length > lists.length) {
+                throw new IOException("Lookup table " + file + " has a list of the wrong length.");
+            }
+            for (int i = (int) start; i < start + length; i++) {
+                if (lists[i] < 0 || lists[i] >= size) {
+                    throw new IOException("Lookup table " + file + " has an entry outside the palette.");
+                }
+            }
+        }
+    }
+
+    private static void read(FileChannel channel, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        for (int i = 0; i < values.length; ) {
+            int count = Math.min(values.length - i, buffer.capacity() / Integer.BYTES);
+            buffer.clear();
+            buffer.limit(count * Integer.BYTES);
+            read(channel, buffer);
+            buffer.flip();
+            buffer.asIntBuffer().get(values, i, count);
+            i += count;
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Lookup table ended early.");
+            }
+        }
+    }
+
+    /**
+     * Saves the table, replacing the file atomically.
+     *
+     * @param file    Where to save the table.
+     * @param palette Palette the table was built for.
+     */
+    public void save(File file, Palette palette) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(32);
+                header.putInt(MAGIC).putInt(VERSION).putInt(bits).putInt(palette.size()).putLong(hash(palette))
+                    .putInt(table.length).putInt(lists.length).flip();
+                write(channel, header);
+                write(channel, table);
+                write(channel, lists);
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void write(FileChannel channel, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        for (int i = 0; i < values.length; ) {
+            int count = Math.min(values.length - i, buffer.capacity() / Integer.BYTES);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, i, count);
+            buffer.limit(count * Integer.BYTES);
+            write(channel, buffer);
+            i += count;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return 64-bit FNV-1a hash of the palette's colors, used to tell whether a saved table still applies.
+     */
+    private static long hash(Palette palette) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < palette.size(); i++) {
+            hash = (hash ^ palette.getRGB(i)) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+}
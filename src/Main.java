@@ -1,22 +1,67 @@
 import classes.Picture;
 
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 
+/**
+ * Makes a collage of the houses dataset and opens it in a picture explorer.
+ * <p>
+ * With {@code --output <file>} the collage is written to the file instead, one row of cells at a time. Adding
+ * {@code --headless} runs without a display: AWT is put in headless mode before it starts and no window is ever
+ * created, so no Swing classes are loaded, and the program exits once the file is written.
+ */
 public class Main {
 
     public static void main(String[] args) {
-        ExecutorService executor = Executors.newFixedThreadPool(16);
+        boolean headless = false;
+        File output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--headless")) {
+                headless = true;
+            } else if (args[i].equals("--output") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else {
+                usage("Unknown argument " + args[i] + ".");
+                return;
+            }
+        }
+
+        if (headless && output == null) {
+            usage("--headless needs --output, since there's no display to show the collage on.");
+            return;
+        }
+        if (headless) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        ExecutorService ioExecutor = CollageExecutors.newIoExecutor();
+        ExecutorService computeExecutor = CollageExecutors.newComputeExecutor();
 
         long start = System.currentTimeMillis();
 
         Picture source = new Picture("src/arch.jpg");
         String path = "src/resources/HousesDataset/";
 
-        Collage collage = new Collage(source, 5, 5, path, executor);
-        collage.createCollage(true).explore();
+        Collage collage = new Collage(source, 5, 5, path, ioExecutor, computeExecutor, new ConsoleProgressReporter());
+        if (output != null) {
+            try {
+                collage.writeCollage(true, output);
+            } catch (IOException e) {
+                throw new RuntimeException("Issue encountered with writing collage to " + output + ".", e);
+            }
+        } else {
+            collage.createCollage(true).explore();
+        }
 
         System.out.println("Time taken: " + (System.currentTimeMillis() - start) / 1000d + " s");
     }
 
-}
\ No newline at end of file
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: Main [--headless] [--output <file.png|file.ppm|file.dzi>]");
+        System.exit(2);
+    }
+
+}
@@ -0,0 +1,121 @@
+import java.awt.*;
+
+/**
+ * Colors of the palette entries, stored as parallel arrays of primitives so distance kernels can scan them without
+ * dereferencing a {@link Color} per entry.
+ * <p>
+ * Besides the channels, each entry keeps the parts of the {@link ColorMetric} weights that only depend on its own
+ * red value, so the kernel doesn't have to recompute them for every comparison.
+ */
+public final class Palette {
+
+    private final Color[] colors;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+
+    /**
+     * {@code 1024 + red}, the entry's part of the weight on the squared red difference.
+     */
+    private final int[] redWeight;
+
+    /**
+     * {@code 1536 - red}, the entry's part of the weight on the squared blue difference.
+     */
+    private final int[] blueWeight;
+
+    public Palette(Color[] colors) {
+        int size = colors.length;
+        this.colors = colors.clone();
+        red = new int[size];
+        green = new int[size];
+        blue = new int[size];
+        redWeight = new int[size];
+        blueWeight = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            red[i] = colors[i].getRed();
+            green[i] = colors[i].getGreen();
+            blue[i] = colors[i].getBlue();
+            redWeight[i] = 1024 + red[i];
+            blueWeight[i] = 1536 - red[i];
+        }
+    }
+
+    public int size() {
+        return red.length;
+    }
+
+    public Color getColor(int i) {
+        return colors[i];
+    }
+
+    public int getRed(int i) {
+        return red[i];
+    }
+
+    public int getGreen(int i) {
+        return green[i];
+    }
+
+    public int getBlue(int i) {
+        return blue[i];
+    }
+
+    public int getRGB(int i) {
+        return red[i] << 16 | green[i] << 8 | blue[i];
+    }
+
+    /**
+     * @return A copy of the palette's colors.
+     */
+    public Color[] toColors() {
+        return colors.clone();
+    }
+
+    /**
+     * @return The same as {@link ColorMetric#distance} between the color and an entry.
+     */
+    public int distance(int i, int r, int g, int b) {
+        int dR = r - red[i];
+        int dG = g - green[i];
+        int dB = b - blue[i];
+
+        return (redWeight[i] + r) * dR * dR + 2048 * dG * dG + (blueWeight[i] - r) * dB * dB;
+    }
+
+    /**
+     * Finds the closest entry to a color by comparing it to every entry.
+     * <p>
+     * The distances to all entries are computed in one pass into a scratch array before looking for the smallest.
+     * Keeping the comparison out of the first loop leaves it free of branches, so the JIT compiles it to SIMD
+     * instructions, which makes this several times faster than comparing as it goes.
+     *
+     * @param distances Scratch array at least {@link #size()} long.
+     * @return Index of the closest entry, the lowest one if several are equally close, or -1 if the palette is empty.
+     */
+    public int nearest(int r, int g, int b, int[] distances) {
+        int size = red.length;
+
+        for (int i = 0; i < size; i++) {
+            int dR = r - red[i];
+            int dG = g - green[i];
+            int dB = b - blue[i];
+            distances[i] = (redWeight[i] + r) * dR * dR + 2048 * dG * dG + (blueWeight[i] - r) * dB * dB;
+        }
+
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, distances[i]);
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (distances[i] == min) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+}
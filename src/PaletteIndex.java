@@ -0,0 +1,219 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary sidecar index of the color features computed for each image in a directory, so they don't have to be
+ * decoded again on the next run.
+ * <p>
+ * Each record stores the image's file name, size and modification time along with its features. A record is only
+ * reused while the size and modification time still match the file on disk, so only new or changed images need
+ * to be decoded. The index is memory-mapped when loaded.
+ * <p>
+ * File layout (big-endian): magic, version, settings, feature length and record count, followed by one record per
+ * image: name length (short), name (UTF-8), size (long), modification time (long) and the features (ints).
+ */
+public class PaletteIndex {
+
+    public static final String FILE_NAME = ".palette.idx";
+
+    private static final int MAGIC = 0x504C4958;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final long settings;
+    private final int featureLength;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * @param file          Location of the index file.
+     * @param settings      Identifies how the features were computed. Records written with other settings are ignored.
+     * @param featureLength Number of ints of features stored per image.
+     */
+    private PaletteIndex(File file, long settings, int featureLength) {
+        this.file = file;
+        this.settings = settings;
+        this.featureLength = featureLength;
+    }
+
+    /**
+     * Loads the index for a directory. If there is no index yet, or it was written with different settings or is
+     * unreadable, an empty index is returned.
+     *
+     * @param directory     Directory of the images.
+     * @param settings      Identifies how the features were computed.
+     * @param featureLength Number of ints of features stored per image.
+     * @param listener      Told when an unreadable index is ignored.
+     * @return The index.
+     */
+    public static PaletteIndex load(File directory, long settings, int featureLength, CollageListener listener) {
+        PaletteIndex index = new PaletteIndex(new File(directory, FILE_NAME), settings, featureLength);
+
+        if (!index.file.isFile()) {
+            return index;
+        }
+
+        try (FileChannel channel = FileChannel.open(index.file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            index.read(buffer);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            listener.message("Ignoring unreadable palette index " + index.file + ": " + e);
+            index.records.clear();
+            index.dirty = true;
+        }
+
+        return index;
+    }
+
+    private void read(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != settings
+            || buffer.getInt() != featureLength) {
+            dirty = true;
+            return;
+        }
+
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.getShort() & 0xffff];
+            buffer.get(name);
+
+            long size = buffer.getLong();
+            long modified = buffer.getLong();
+            int[] features = new int[featureLength];
+            buffer.asIntBuffer().get(features);
+            buffer.position(buffer.position() + featureLength * Integer.BYTES);
+
+            records.put(new String(name, StandardCharsets.UTF_8), new Record(size, modified, features));
+        }
+    }
+
+    /**
+     * Gets the features of an image, if they are indexed and the image hasn't changed since.
+     *
+     * @param image Image file.
+     * @return The features, or null if the image has to be decoded again.
+     */
+    public int[] get(File image) {
+        Record record = records.get(image.getName());
+
+        if (record == null || record.size != image.length() || record.modified != image.lastModified()) {
+            return null;
+        }
+
+        return record.features;
+    }
+
+    /**
+     * Stores the features of an image. Safe to call from multiple threads.
+     * <p>
+     * The size and modification time must be taken before the image is read, so an image changed while it was
+     * being decoded doesn't match its record and is decoded again next time.
+     *
+     * @param image    Image file.
+     * @param size     Size of the file before it was read.
+     * @param modified Modification time of the file before it was read.
+     * @param features Features of the image.
+     */
+    public void put(File image, long size, long modified, int[] features) {
+        if (features.length != featureLength) {
+            throw new IllegalArgumentException("Expected " + featureLength + " features, got " + features.length + ".");
+        }
+
+        records.put(image.getName(), new Record(size, modified, features));
+        dirty = true;
+    }
+
+    /**
+     * Drops records of images that are no longer in use.
+     *
+     * @param images Images to keep.
+     */
+    public void retain(File[] images) {
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        for (File image : images) {
+            names.add(image.getName());
+        }
+
+        if (records.keySet().retainAll(names)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the index back to disk if anything changed since it was loaded. The file is replaced atomically, so
+     * an interrupted save never leaves a corrupt index behind.
+     *
+     * @throws IOException If the index can't be written.
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(FILE_NAME + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(settings);
+                out.writeInt(featureLength);
+                out.writeInt(records.size());
+
+                for (Map.Entry<String, Record> entry : records.entrySet()) {
+                    byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    Record record = entry.getValue();
+
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeLong(record.size);
+                    out.writeLong(record.modified);
+                    for (int feature : record.features) {
+                        out.writeInt(feature);
+                    }
+                }
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    private static final class Record {
+        private final long size;
+        private final long modified;
+        private final int[] features;
+
+        private Record(long size, long modified, int[] features) {
+            this.size = size;
+            this.modified = modified;
+            this.features = features;
+        }
+    }
+
+}
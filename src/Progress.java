@@ -0,0 +1,55 @@
+/**
+ * Snapshot of how far a stage of making a collage has got.
+ */
+public class Progress {
+
+    private final String stage;
+    private final long completed;
+    private final long total;
+    private final long elapsedNanos;
+
+    public Progress(String stage, long completed, long total, long elapsedNanos) {
+        this.stage = stage;
+        this.completed = completed;
+        this.total = total;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return Fraction of the stage that's done, from 0 to 1.
+     */
+    public double getFraction() {
+        return total == 0 ? 1 : (double) completed / total;
+    }
+
+    /**
+     * @return Items completed per second so far.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return Estimated seconds until the stage is done at the current throughput, or infinity if nothing is done yet.
+     */
+    public double getEtaSeconds() {
+        return completed == 0 ? Double.POSITIVE_INFINITY : (total - completed) / getThroughput();
+    }
+
+}
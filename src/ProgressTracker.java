@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts completed items of a stage from any number of threads and passes progress on to a listener, at most once
+ * per interval. The listener is never called for the stage again until its last call has returned: progress due while
+ * it is still busy is skipped, and finishing waits for it.
+ */
+public class ProgressTracker {
+
+    private final CollageListener listener;
+    private final String stage;
+    private final long total;
+    private final long intervalNanos;
+    private final long start = System.nanoTime();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong nextEvent;
+    private final ReentrantLock events = new ReentrantLock();
+
+    /**
+     * Starts tracking a stage, telling the listener it has started.
+     *
+     * @param listener      Listener to report to.
+     * @param stage         Name of the stage.
+     * @param total         How many items the stage will process.
+     * @param intervalNanos Shortest time between progress events.
+     */
+    public ProgressTracker(CollageListener listener, String stage, long total, long intervalNanos) {
+        this.listener = listener;
+        this.stage = stage;
+        this.total = total;
+        this.intervalNanos = intervalNanos;
+        this.nextEvent = new AtomicLong(start + intervalNanos);
+
+        listener.stageStarted(stage, total);
+    }
+
+    /**
+     * Marks one item as done.
+     */
+    public void increment() {
+        completed.increment();
+
+        if (listener == CollageListener.SILENT) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long next = nextEvent.get();
+        if (now - next >= 0 && nextEvent.compareAndSet(next, now + intervalNanos) && events.tryLock()) {
+            try {
+                listener.progress(new Progress(stage, completed.sum(), total, now - start));
+            } finally {
+                events.unlock();
+            }
+        }
+    }
+
+    /**
+     * Tells the listener the stage is done.
+     */
+    public void finish() {
+        events.lock();
+        try {
+            listener.stageFinished(snapshot());
+        } finally {
+            events.unlock();
+        }
+    }
+
+    public Progress snapshot() {
+        return new Progress(stage, completed.sum(), total, System.nanoTime() - start);
+    }
+
+}
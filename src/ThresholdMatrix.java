@@ -0,0 +1,215 @@
+import java.util.SplittableRandom;
+
+/**
+ * Square matrix of thresholds for ordered dithering, tiled over the picture. Each threshold is between 0 and 1, and
+ * every threshold is used once, so they're evenly spread over that range.
+ * <p>
+ * A cell's offset only depends on its own coordinates, so unlike error diffusion every cell can be dithered
+ * independently of the others.
+ */
+public final class ThresholdMatrix {
+
+    private static final int BAYER_SIZE = 8;
+    private static final int BLUE_NOISE_SIZE = 64;
+    private static final long BLUE_NOISE_SEED = 0xB1AEL;
+
+    /**
+     * Share of the cells set in the initial pattern of void-and-cluster.
+     */
+    private static final double INITIAL_DENSITY = 0.1;
+
+    /**
+     * Standard deviation of the Gaussian void-and-cluster measures clusters and voids with, in cells.
+     */
+    private static final double SIGMA = 1.5;
+
+    private final int size;
+    private final float[] thresholds;
+
+    private ThresholdMatrix(int size, int[] ranks) {
+        this.size = size;
+        this.thresholds = new float[ranks.length];
+
+        for (int i = 0; i < ranks.length; i++) {
+            thresholds[i] = (ranks[i] + 0.5f) / ranks.length;
+        }
+    }
+
+    /**
+     * @return The 8x8 Bayer matrix, built once.
+     */
+    public static ThresholdMatrix bayer() {
+        return BayerHolder.MATRIX;
+    }
+
+    /**
+     * @return A 64x64 blue noise mask, built once.
+     */
+    public static ThresholdMatrix blueNoise() {
+        return BlueNoiseHolder.MATRIX;
+    }
+
+    /**
+     * Builds a Bayer matrix, whose thresholds are arranged so every smaller power of two square of them is as evenly
+     * spread as possible. Gives a regular crosshatch pattern.
+     *
+     * @param size Width of the matrix, a power of two.
+     */
+    public static ThresholdMatrix bayer(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two, was " + size + ".");
+        }
+
+        int[] ranks = {0};
+        for (int n = 1; n < size; n *= 2) {
+            int[] next = new int[4 * n * n];
+
+            for (int y = 0; y < n; y++) {
+                for (int x = 0; x < n; x++) {
+                    int rank = 4 * ranks[y * n + x];
+                    next[y * 2 * n + x] = rank;
+                    next[y * 2 * n + x + n] = rank + 2;
+                    next[(y + n) * 2 * n + x] = rank + 3;
+                    next[(y + n) * 2 * n + x + n] = rank + 1;
+                }
+            }
+
+            ranks = next;
+        }
+
+        return new ThresholdMatrix(size, ranks);
+    }
+
+    /**
+     * Builds a blue noise mask with Ulichney's void-and-cluster method. Every set of the lowest thresholds is spread
+     * evenly without a regular pattern, so the dithering looks like fine grain instead of a crosshatch. The mask
+     * wraps around at its edges, so it tiles without seams.
+     *
+     * @param size Width of the mask.
+     * @param seed Seed for the initial pattern, so the same seed always gives the same mask.
+     */
+    public static ThresholdMatrix blueNoise(int size, long seed) {
+        int n = size * size;
+        double[] kernel = kernel(size);
+        boolean[] set = new boolean[n];
+        double[] energy = new double[n];
+
+        // start from random cells, then move the tightest cluster to the largest void until that changes nothing
+        SplittableRandom random = new SplittableRandom(seed);
+        int initial = Math.max(1, (int) (n * INITIAL_DENSITY));
+        for (int count = 0; count < initial; ) {
+            int i = random.nextInt(n);
+            if (!set[i]) {
+                toggle(set, energy, kernel, size, i);
+                count++;
+            }
+        }
+        while (true) {
+            int cluster = extreme(set, energy, true);
+            toggle(set, energy, kernel, size, cluster);
+            int gap = extreme(set, energy, false);
+            toggle(set, energy, kernel, size, gap);
+
+            if (gap == cluster) {
+                break;
+            }
+        }
+
+        int[] ranks = new int[n];
+
+        // rank the initial cells by taking away the tightest cluster each time
+        boolean[] prototype = set.clone();
+        double[] prototypeEnergy = energy.clone();
+        for (int rank = initial - 1; rank >= 0; rank--) {
+            int cluster = extreme(set, energy, true);
+            toggle(set, energy, kernel, size, cluster);
+            ranks[cluster] = rank;
+        }
+
+        // rank the rest by filling the largest void each time
+        set = prototype;
+        energy = prototypeEnergy;
+        for (int rank = initial; rank < n; rank++) {
+            int gap = extreme(set, energy, false);
+            toggle(set, energy, kernel, size, gap);
+            ranks[gap] = rank;
+        }
+
+        return new ThresholdMatrix(size, ranks);
+    }
+
+    /**
+     * @return Gaussian weight of each offset between cells, wrapping around the edges.
+     */
+    private static double[] kernel(int size) {
+        double[] kernel = new double[size * size];
+
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                int wrappedX = Math.min(dx, size - dx);
+                int wrappedY = Math.min(dy, size - dy);
+                kernel[dy * size + dx] = Math.exp(-(wrappedX * wrappedX + wrappedY * wrappedY) / (2 * SIGMA * SIGMA));
+            }
+        }
+
+        return kernel;
+    }
+
+    /**
+     * Sets or clears a cell, updating how close every cell is to the set cells.
+     */
+    private static void toggle(boolean[] set, double[] energy, double[] kernel, int size, int i) {
+        set[i] = !set[i];
+        double sign = set[i] ? 1 : -1;
+        int x = i % size;
+        int y = i / size;
+
+        for (int cy = 0; cy < size; cy++) {
+            int dy = Math.floorMod(cy - y, size);
+            for (int cx = 0; cx < size; cx++) {
+                energy[cy * size + cx] += sign * kernel[dy * size + Math.floorMod(cx - x, size)];
+            }
+        }
+    }
+
+    /**
+     * @param cluster Whether to find the tightest cluster, the set cell closest to other set cells, rather than the
+     *                largest void, the clear cell furthest from any.
+     * @return Index of the cell, the lowest one if several are equal.
+     */
+    private static int extreme(boolean[] set, double[] energy, boolean cluster) {
+        int best = -1;
+
+        for (int i = 0; i < set.length; i++) {
+            if (set[i] == cluster
+                && (best < 0 || (cluster ? energy[i] > energy[best] : energy[i] < energy[best]))) {
+                best = i;
+            }
+        }
+
+        return best;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Threshold for a cell, between 0 and 1. The matrix repeats, so any coordinates can be used.
+     */
+    public float get(int x, int y) {
+        return thresholds[Math.floorMod(y, size) * size + Math.floorMod(x, size)];
+    }
+
+    /**
+     * Builds the matrices the first time they're used, so only the ones used are ever built.
+     */
+    private static final class BayerHolder {
+        private static final ThresholdMatrix MATRIX = bayer(BAYER_SIZE);
+    }
+
+    private static final class BlueNoiseHolder {
+        private static final ThresholdMatrix MATRIX = blueNoise(BLUE_NOISE_SIZE, BLUE_NOISE_SEED);
+    }
+
+}
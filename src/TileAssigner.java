@@ -0,0 +1,370 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns palette entries to cells while limiting how often each entry is used and keeping neighboring cells from
+ * using the same entry.
+ * <p>
+ * Cells with the same color are handled together, as a group. Each group waits in one priority queue, keyed by the
+ * distance from its color to the closest entry it could still use, and the group with the smallest distance is
+ * offered that entry first. The closest matches are kept, and the cells that have to give up their closest entry are
+ * the ones that lose the least by it. Candidates come a few at a time from {@link KdColorIndex}, leaving out entries
+ * that are used up, so no cell is ever compared to every entry and large grids and palettes still take seconds.
+ */
+public class TileAssigner {
+
+    /**
+     * Closest entries found for a group at a time. More are found once they are all used up or refused.
+     */
+    private static final int CANDIDATES = 16;
+
+    /**
+     * Groups a worker finds candidates for at a time.
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Fraction of the candidate index's entries that may be used up before it is rebuilt. Searches still have to
+     * visit and skip used up entries, which gets slow quickly.
+     */
+    private static final double REBUILD_FRACTION = 1.0 / 8;
+
+    private final Palette palette;
+    private final ExecutorService executorService;
+
+    /**
+     * Index over the entries that weren't used up when it was built, and the palette index of each of its entries.
+     */
+    private KdColorIndex tree;
+    private int[] treeEntries;
+    private int treeUsedUp;
+
+    /**
+     * @param palette         Palette to assign entries from.
+     * @param executorService Finds candidate entries.
+     */
+    public TileAssigner(Palette palette, ExecutorService executorService) {
+        this.palette = palette;
+        this.executorService = executorService;
+    }
+
+    /**
+     * @param pixels        Color of each cell as an RGB int, in raster order.
+     * @param width         Number of columns of cells.
+     * @param height        Number of rows of cells.
+     * @param maxUses       Most cells any one entry may be used for, or 0 for no limit.
+     * @param avoidAdjacent Whether to keep cells sharing an edge from using the same entry. Where that isn't
+     *                      possible, it is allowed.
+     * @return Index of the palette entry for each cell, in raster order.
+     */
+    public synchronized int[] assign(int[] pixels, int width, int height, int maxUses, boolean avoidAdjacent) {
+        int cells = width * height;
+        int size = palette.size();
+
+        if (maxUses > 0 && (long) maxUses * size < cells) {
+            throw new IllegalArgumentException("Can't fill " + cells + " cells with " + size + " images used at most "
+                + maxUses + " times each.");
+        }
+
+        // cells of the same color share a candidate list, and wait in the queue together
+        Map<Integer, Integer> groupOfColor = new HashMap<>();
+        List<Group> groups = new ArrayList<>();
+        int[] groupOf = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            int rgb = pixels[i] & 0xffffff;
+            Integer group = groupOfColor.get(rgb);
+
+            if (group == null) {
+                group = groups.size();
+                groupOfColor.put(rgb, group);
+                groups.add(new Group(rgb));
+            }
+
+            groupOf[i] = group;
+            groups.get(group).first++;
+        }
+        for (Group group : groups) {
+            group.cells = new int[group.first];
+        }
+        for (int i = cells - 1; i >= 0; i--) {
+            Group group = groups.get(groupOf[i]);
+            group.cells[--group.first] = i;
+        }
+
+        int[] assigned = new int[cells];
+        int[] uses = new int[size];
+        buildTree(uses, maxUses);
+        findCandidates(groups, uses, maxUses);
+
+        Arrays.fill(assigned, -1);
+
+        long[] heap = new long[groups.size()];
+        for (int i = 0; i < heap.length; i++) {
+            heap[i] = key(groups.get(i), i);
+        }
+        int heapSize = heap.length;
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i);
+        }
+
+        while (heapSize > 0) {
+            long top = heap[0];
+            Group group = groups.get((int) top);
+
+            if (!group.skipUsedUp(uses, maxUses)) {
+                // every entry left is next to the waiting cells, so let them repeat a neighbor
+                group.relaxed = true;
+                group.refusedCount = 0;
+                group.rank = group.count;
+                group.skipUsedUp(uses, maxUses);
+            }
+
+            long key = key(group, (int) top);
+            if (key > top) {
+                // the best entry left is worse than when the group was queued, so it may no longer be first
+                heap[0] = key;
+                siftDown(heap, heapSize, 0);
+                continue;
+            }
+
+            // offer the entry to each waiting cell in turn until it's used up, keeping the cells it can't go to
+            int entry = group.candidates[group.rank];
+            int kept = group.first;
+            int i = group.first;
+            for (; i < group.cells.length && (maxUses <= 0 || uses[entry] < maxUses); i++) {
+                int cell = group.cells[i];
+
+                if (avoidAdjacent && !group.relaxed && adjacentTo(entry, cell, width, height, assigned)) {
+                    group.cells[kept++] = cell;
+                } else {
+                    assigned[cell] = entry;
+                    uses[entry]++;
+
+                    if (uses[entry] == maxUses && ++treeUsedUp > treeEntries.length * REBUILD_FRACTION) {
+                        buildTree(uses, maxUses);
+                    }
+                }
+            }
+
+            // move the kept cells up against the ones that weren't offered the entry, so they stay in order
+            kept -= group.first;
+            System.arraycopy(group.cells, group.first, group.cells, i - kept, kept);
+            group.first = i - kept;
+
+            if (group.first == group.cells.length) {
+                heap[0] = heap[--heapSize];
+            } else {
+                // every waiting cell has now been offered this entry or it's used up
+                if (maxUses <= 0 || uses[entry] < maxUses) {
+                    group.refuse(entry);
+                }
+                group.rank++;
+            }
+            siftDown(heap, heapSize, 0);
+        }
+
+        return assigned;
+    }
+
+    /**
+     * Builds the index over the entries that aren't used up.
+     */
+    private void buildTree(int[] uses, int maxUses) {
+        int[] entries = new int[uses.length];
+        int count = 0;
+        for (int i = 0; i < uses.length; i++) {
+            if (maxUses <= 0 || uses[i] < maxUses) {
+                entries[count++] = i;
+            }
+        }
+
+        Color[] colors = new Color[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = palette.getColor(entries[i]);
+        }
+
+        // entries keep their order, so ties are still broken by palette index
+        tree = new KdColorIndex(new Palette(colors));
+        treeEntries = Arrays.copyOf(entries, count);
+        treeUsedUp = 0;
+    }
+
+    /**
+     * Finds the closest entries to each group's color, splitting the groups into chunks taken by workers on the
+     * executor and by the calling thread. Workers only take a chunk once they start running, so this never waits on
+     * workers still queued behind other tasks, even when called from the executor itself.
+     */
+    private void findCandidates(List<Group> groups, int[] uses, int maxUses) {
+        int chunks = (groups.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks == 0) {
+            return;
+        }
+
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(chunks);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable worker = () -> {
+            for (int chunk = nextChunk.getAndIncrement(); chunk < chunks; chunk = nextChunk.getAndIncrement()) {
+                try {
+                    for (int i = chunk * CHUNK_SIZE; i < Math.min((chunk + 1) * CHUNK_SIZE, groups.size()); i++) {
+                        groups.get(i).refill(uses, maxUses);
+                    }
+                } catch (RuntimeException | Error e) {
+                    done.completeExceptionally(e);
+                    return;
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            }
+        };
+
+        for (int i = 1; i < Math.min(chunks, Runtime.getRuntime().availableProcessors()); i++) {
+            executorService.execute(worker);
+        }
+        worker.run();
+
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Issue encountered with finding candidate images.", e.getCause());
+        }
+    }
+
+    private static boolean adjacentTo(int entry, int cell, int width, int height, int[] assigned) {
+        int x = cell % width;
+        int y = cell / width;
+
+        return x > 0 && assigned[cell - 1] == entry
+            || x + 1 < width && assigned[cell + 1] == entry
+            || y > 0 && assigned[cell - width] == entry
+            || y + 1 < height && assigned[cell + width] == entry;
+    }
+
+    /**
+     * @return Distance from the group's color to its current candidate in the high 32 bits and the group's number
+     * in the low 32 bits, so keys order by distance and then by group.
+     */
+    private long key(Group group, int number) {
+        int rgb = group.rgb;
+        int entry = group.candidates[group.rank];
+        int distance = palette.distance(entry, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+
+        return (long) distance << 32 | number;
+    }
+
+    private static void siftDown(long[] heap, int size, int i) {
+        long value = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = value;
+    }
+
+    private final class Group {
+        private final int rgb;
+        private final int[] candidates = new int[CANDIDATES];
+        private int count;
+
+        /**
+         * Cells of this color, of which the ones from {@link #first} on are still unassigned.
+         */
+        private int[] cells;
+        private int first;
+
+        /**
+         * Rank of the candidate the waiting cells are being offered. Cells are offered candidates in order, and
+         * once a candidate is refused or used up it isn't offered again.
+         */
+        private int rank;
+
+        /**
+         * Entries every waiting cell has refused for being next to it. Cells stay next to their neighbors, so these
+         * are never offered again.
+         */
+        private int[] refused = new int[4];
+        private int refusedCount;
+
+        /**
+         * Whether the waiting cells may use the same entry as a neighbor.
+         */
+        private boolean relaxed;
+
+        private Group(int rgb) {
+            this.rgb = rgb;
+        }
+
+        /**
+         * Moves the current candidate past entries that are used up, finding more candidates if needed.
+         *
+         * @return Whether a candidate is left.
+         */
+        private boolean skipUsedUp(int[] uses, int maxUses) {
+            while (true) {
+                if (rank == count && !refill(uses, maxUses)) {
+                    return false;
+                }
+                if (maxUses <= 0 || uses[candidates[rank]] < maxUses) {
+                    return true;
+                }
+                rank++;
+            }
+        }
+
+        /**
+         * Finds the closest entries that are neither used up nor refused. Entries only ever become unusable, so
+         * these are also the next closest entries after the ones already offered.
+         *
+         * @return Whether any were found.
+         */
+        private boolean refill(int[] uses, int maxUses) {
+            int[] entries = treeEntries;
+            count = tree.nearest((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, CANDIDATES, candidates,
+                i -> maxUses > 0 && uses[entries[i]] >= maxUses || isRefused(entries[i]));
+            for (int i = 0; i < count; i++) {
+                candidates[i] = entries[candidates[i]];
+            }
+            rank = 0;
+            return count > 0;
+        }
+
+        private void refuse(int entry) {
+            if (refusedCount == refused.length) {
+                refused = Arrays.copyOf(refused, refusedCount * 2);
+            }
+            refused[refusedCount++] = entry;
+        }
+
+        private boolean isRefused(int entry) {
+            for (int i = 0; i < refusedCount; i++) {
+                if (refused[i] == entry) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+import classes.Picture;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of decoded collage tiles, already scaled to their final size.
+ * <p>
+ * Entries are weighed by the bytes their pixels take up and evicted in least recently used order once the total
+ * weight goes over the limit. Concurrent requests for the same tile share a single load instead of decoding the
+ * image twice.
+ */
+public class TileCache {
+
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TileCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param maxWeight Maximum number of bytes of pixel data to keep cached.
+     */
+    public TileCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets a tile from the cache, loading it if it isn't there yet.
+     * If another thread is already loading the same tile, this waits for that load instead of starting a new one.
+     *
+     * @param image      Image the tile is made from.
+     * @param size       Size the tile is scaled to.
+     * @param background Background color the tile is drawn over.
+     * @param loader     Creates the tile when it isn't cached.
+     * @return The cached tile. Callers must not modify it.
+     */
+    public Picture get(File image, int size, Color background, Supplier<Picture> loader) {
+        return join(getAsync(image, size, background, () -> CompletableFuture.completedFuture(loader.get())));
+    }
+
+    /**
+     * Gets a tile from the cache, starting to load it if it isn't there yet, without waiting for it.
+     * If another thread is already loading the same tile, this shares that load instead of starting a new one.
+     *
+     * @param image      Image the tile is made from.
+     * @param size       Size the tile is scaled to.
+     * @param background Background color the tile is drawn over.
+     * @param loader     Starts creating the tile when it isn't cached.
+     * @return The cached tile once it's loaded. Callers must not modify it.
+     */
+    public CompletableFuture<Picture> getAsync(File image, int size, Color background,
+                                               Supplier<CompletableFuture<Picture>> loader) {
+        Key key = new Key(image, size, background.getRGB());
+        Entry entry;
+        boolean owner = false;
+
+        synchronized (this) {
+            entry = entries.get(key);
+
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            hits.increment();
+            return entry.tile;
+        }
+
+        misses.increment();
+
+        CompletableFuture<Picture> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+
+        Entry loaded = entry;
+        loading.whenComplete((tile, e) -> {
+            if (e != null) {
+                synchronized (this) {
+                    entries.remove(key, loaded);
+                }
+                loaded.tile.completeExceptionally(e);
+                return;
+            }
+
+            // weigh the tile before completing it, since whatever waits on it runs as soon as it completes
+            synchronized (this) {
+                if (entries.get(key) == loaded) {
+                    loaded.weight = weigh(tile);
+                    weight += loaded.weight;
+                    evict();
+                }
+            }
+            loaded.tile.complete(tile);
+        });
+
+        return entry.tile;
+    }
+
+    /**
+     * Removes least recently used tiles until the cache is within its weight limit.
+     * Tiles that are still loading are skipped, since their weight isn't known yet.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+
+        while (weight > maxWeight && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+
+            if (entry.tile.isDone()) {
+                iterator.remove();
+                weight -= entry.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    private static Picture join(CompletableFuture<Picture> tile) {
+        try {
+            return tile.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private static long weigh(Picture tile) {
+        return (long) tile.getWidth() * tile.getHeight() * Integer.BYTES;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String toString() {
+        return "TileCache[hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+            + ", entries=" + size() + ", weight=" + getWeight() + "/" + maxWeight + " bytes]";
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<Picture> tile = new CompletableFuture<>();
+        private long weight;
+    }
+
+    private static final class Key {
+        private final File image;
+        private final int size;
+        private final int background;
+
+        private Key(File image, int size, int background) {
+            this.image = image;
+            this.size = size;
+            this.background = background;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return size == other.size && background == other.background && image.equals(other.image);
+        }
+
+        public int hashCode() {
+            return Objects.hash(image, size, background);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+import classes.DigitalPicture;
+import classes.SimplePicture;
+
+/**
+ * Draws collage tiles straight into their cells of the collage canvas.
+ * <p>
+ * Every cell covers its own region of the canvas, so tiles for different cells can be drawn from any number of
+ * threads at once without locking. Changes are visible to other threads once the drawing tasks have been joined.
+ */
+public class TileCompositor {
+
+    private final DigitalPicture canvas;
+    private final int[] canvasData;
+    private final int canvasWidth;
+    private final int tileSize;
+
+    /**
+     * @param canvas   Picture the collage is drawn on.
+     * @param tileSize Width and height of each cell in pixels.
+     */
+    public TileCompositor(DigitalPicture canvas, int tileSize) {
+        this.canvas = canvas;
+        this.canvasWidth = canvas.getWidth();
+        this.tileSize = tileSize;
+
+        // only write to the array directly if nothing needs the alpha kept
+        int[] data = canvas.getIntData();
+        boolean alpha = canvas.getBufferedImage() == null || canvas.getBufferedImage().getColorModel().hasAlpha();
+        this.canvasData = alpha ? null : data;
+    }
+
+    /**
+     * Draws a tile into a cell, clipped to the canvas.
+     *
+     * @param tile  Tile to draw. It isn't modified, so cached tiles can be shared between cells.
+     * @param cellX Column of the cell.
+     * @param cellY Row of the cell.
+     */
+    public void draw(DigitalPicture tile, int cellX, int cellY) {
+        int left = cellX * tileSize;
+        int top = cellY * tileSize;
+        int[] tileData = tile.getIntData();
+        boolean tileAlpha = tile.getBufferedImage() == null || tile.getBufferedImage().getColorModel().hasAlpha();
+
+        if (canvasData == null || tileData == null || tileAlpha) {
+            SimplePicture.copyRegion(tile, 0, 0, canvas, left, top, tileSize, tileSize);
+            return;
+        }
+
+        int tileWidth = tile.getWidth();
+        int width = Math.min(Math.min(tileSize, tileWidth), canvasWidth - left);
+        int height = Math.min(Math.min(tileSize, tile.getHeight()), canvas.getHeight() - top);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(tileData, row * tileWidth, canvasData, (top + row) * canvasWidth + left, width);
+        }
+    }
+
+    public DigitalPicture getCanvas() {
+        return canvas;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+}
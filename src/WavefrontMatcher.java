@@ -0,0 +1,362 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Matches every pixel of a picture to its closest palette entry, optionally with dithering, using several threads.
+ * <p>
+ * Without dithering, or with ordered dithering through a {@link ThresholdMatrix}, every pixel is independent. With
+ * error diffusion, a pixel's final color depends on the pixels before it in its row and in the rows above, so rows
+ * are processed as a wavefront: workers take rows in order, and a row only moves on to a cell once the row above has
+ * finished every cell whose error could reach the cells this one shares error with. By then every share of error the
+ * serial algorithm would have added to the pixels involved has been added, in the same order, so the result is
+ * identical to processing the pixels one at a time in scan order. With a serpentine scan each row has to wait for
+ * the whole row above, so rows are matched one after another.
+ * <p>
+ * Diffused error is kept apart from the pixels, as floats, in a buffer with room for only as many rows as can be in
+ * progress at once. Nothing is allocated per cell.
+ */
+public class WavefrontMatcher {
+
+    /**
+     * Times to spin waiting for the row above before parking.
+     */
+    private static final int SPINS = 100;
+
+    private static final long PARK_NANOS = 10_000;
+
+    /**
+     * Finds the palette entry for a cell.
+     */
+    @FunctionalInterface
+    public interface CellIndex {
+        /**
+         * @param x Column of the cell.
+         * @param y Row of the cell.
+         * @param r Red of the cell, after any error diffused into it.
+         * @param g Green of the cell, after any error diffused into it.
+         * @param b Blue of the cell, after any error diffused into it.
+         * @return Index of the palette entry for the cell.
+         */
+        int nearest(int x, int y, int r, int g, int b);
+    }
+
+    /**
+     * Receives each cell once its palette entry is final.
+     */
+    @FunctionalInterface
+    public interface CellConsumer {
+        void accept(int x, int y, int index);
+    }
+
+    private final CellIndex cellIndex;
+    private final Palette palette;
+    private final DitherKernel kernel;
+    private final boolean serpentine;
+    private final ExecutorService executorService;
+    private final int parallelism;
+
+    /**
+     * Range of the offsets added to cells for ordered dithering: the distance between palette colors if they were
+     * spread evenly over the color cube.
+     */
+    private final float thresholdSpread;
+
+    /**
+     * @param colorIndex      Finds the closest palette entry to each pixel.
+     * @param palette         Colors of the palette entries, used to work out the error when dithering.
+     * @param executorService Runs the workers.
+     * @param parallelism     Most workers to use.
+     */
+    public WavefrontMatcher(ColorIndex colorIndex, Palette palette, ExecutorService executorService, int parallelism) {
+        this((x, y, r, g, b) -> colorIndex.nearest(r, g, b), palette, executorService, parallelism);
+    }
+
+    /**
+     * @param cellIndex       Finds the palette entry for each cell.
+     * @param palette         Colors of the palette entries, used to work out the error when dithering.
+     * @param executorService Runs the workers.
+     * @param parallelism     Most workers to use.
+     */
+    public WavefrontMatcher(CellIndex cellIndex, Palette palette, ExecutorService executorService, int parallelism) {
+        this(cellIndex, palette, DitherKernel.FLOYD_STEINBERG, false, executorService, parallelism);
+    }
+
+    /**
+     * @param cellIndex       Finds the palette entry for each cell.
+     * @param palette         Colors of the palette entries, used to work out the error when dithering.
+     * @param kernel          How error is shared out when dithering.
+     * @param serpentine      Whether to scan every other row right to left when dithering, which avoids the
+     *                        diagonal patterns of always scanning the same way, but matches rows one at a time.
+     * @param executorService Runs the workers.
+     * @param parallelism     Most workers to use.
+     */
+    public WavefrontMatcher(CellIndex cellIndex, Palette palette, DitherKernel kernel, boolean serpentine,
+                            ExecutorService executorService, int parallelism) {
+        this.cellIndex = cellIndex;
+        this.palette = palette;
+        this.kernel = kernel;
+        this.serpentine = serpentine;
+        this.executorService = executorService;
+        this.parallelism = Math.max(1, parallelism);
+        this.thresholdSpread = 256 / (float) Math.cbrt(Math.max(1, palette.size()));
+    }
+
+    /**
+     * Matches the pixels, waiting until every cell is done. When dithering, each pixel is replaced by its color after
+     * the error diffused into it.
+     *
+     * @param pixels   Pixels in raster order, as RGB ints.
+     * @param width    Width of the picture.
+     * @param height   Height of the picture.
+     * @param dither   Whether to apply error diffusion dithering or not.
+     * @param consumer Receives each cell as soon as it is matched, from the worker threads.
+     * @return Index of the palette entry for each pixel, in raster order.
+     */
+    public int[] match(int[] pixels, int width, int height, boolean dither, CellConsumer consumer) {
+        return match(pixels, width, height, dither ? DitherMode.ERROR_DIFFUSION : DitherMode.NONE, consumer);
+    }
+
+    /**
+     * Matches the pixels, waiting until every cell is done. When dithering, each pixel is replaced by its dithered
+     * color.
+     *
+     * @param pixels   Pixels in raster order, as RGB ints.
+     * @param width    Width of the picture.
+     * @param height   Height of the picture.
+     * @param dither   How to dither the pixels.
+     * @param consumer Receives each cell as soon as it is matched, from the worker threads.
+     * @return Index of the palette entry for each pixel, in raster order.
+     */
+    public int[] match(int[] pixels, int width, int height, DitherMode dither, CellConsumer consumer) {
+        try {
+            return matchAsync(pixels, width, height, dither, consumer).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Issue encountered with matching pixels to the palette.", e);
+        }
+    }
+
+    /**
+     * Starts matching the pixels without waiting for them. When dithering, each pixel is replaced by its color after
+     * the error diffused into it.
+     *
+     * @param pixels   Pixels in raster order, as RGB ints.
+     * @param width    Width of the picture.
+     * @param height   Height of the picture.
+     * @param dither   Whether to apply error diffusion dithering or not.
+     * @param consumer Receives each cell as soon as it is matched, from the worker threads. May block.
+     * @return Completes with the index of the palette entry for each pixel, in raster order.
+     */
+    public CompletableFuture<int[]> matchAsync(int[] pixels, int width, int height, boolean dither,
+                                               CellConsumer consumer) {
+        return matchAsync(pixels, width, height, dither ? DitherMode.ERROR_DIFFUSION : DitherMode.NONE, consumer);
+    }
+
+    /**
+     * Starts matching the pixels without waiting for them. When dithering, each pixel is replaced by its dithered
+     * color.
+     * Workers only take a row once they start running, so this never waits on workers still queued on the executor.
+     *
+     * @param pixels   Pixels in raster order, as RGB ints.
+     * @param width    Width of the picture.
+     * @param height   Height of the picture.
+     * @param dither   How to dither the pixels. Only error diffusion makes rows wait on each other.
+     * @param consumer Receives each cell as soon as it is matched, from the worker threads. May block.
+     * @return Completes with the index of the palette entry for each pixel, in raster order.
+     */
+    public CompletableFuture<int[]> matchAsync(int[] pixels, int width, int height, DitherMode dither,
+                                               CellConsumer consumer) {
+        boolean diffuse = dither == DitherMode.ERROR_DIFFUSION;
+
+        // rows in progress are at most one per worker, and each shares error with the rows below it
+        int ring = Math.min(height, parallelism + kernel.getDepth() + 1);
+        Job job = new Job(pixels, width, height, diffuse, dither.getThresholds(), new int[width * height],
+            new AtomicIntegerArray(height), diffuse ? new float[ring * width * 3] : null, ring, consumer);
+        AtomicInteger nextRow = new AtomicInteger();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, height); i++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                try {
+                    for (int y = nextRow.getAndIncrement(); y < height; y = nextRow.getAndIncrement()) {
+                        matchRow(job, y);
+                    }
+                } catch (RuntimeException | Error e) {
+                    job.failed = true;
+                    throw e;
+                }
+            }, executorService));
+        }
+
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).thenApply(done -> job.indices);
+    }
+
+    private void matchRow(Job job, int y) {
+        int width = job.width;
+        boolean forward = !serpentine || y % 2 == 0;
+        boolean aboveForward = !serpentine || y % 2 == 1;
+        int span = 2 * kernel.getReach();
+        int above = y == 0 || !job.diffuse ? width : 0;
+        int row = (y % job.ring) * width * 3;
+
+        // the farthest row this one shares error with takes over the buffer of an older row, once that is done
+        int farthest = y + kernel.getDepth();
+        if (job.diffuse && farthest < job.height && farthest >= job.ring) {
+            await(job, farthest - job.ring, width);
+        }
+
+        for (int k = 0; k < width; k++) {
+            int x = forward ? k : width - 1 - k;
+            if (above < width) {
+                int needed = aboveForward ? Math.min(x + span + 1, width) : Math.min(width - x + span, width);
+                if (above < needed) {
+                    above = await(job, y - 1, needed);
+                }
+            }
+
+            int i = y * width + x;
+            int rgb = job.pixels[i];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            int index;
+
+            if (job.diffuse) {
+                int e = row + x * 3;
+                float red = clamp(r + job.errors[e]);
+                float green = clamp(g + job.errors[e + 1]);
+                float blue = clamp(b + job.errors[e + 2]);
+                r = Math.round(red);
+                g = Math.round(green);
+                b = Math.round(blue);
+
+                index = cellIndex.nearest(x, y, r, g, b);
+                job.pixels[i] = rgb & 0xff000000 | r << 16 | g << 8 | b;
+                distributeError(job, x, y, forward, red - palette.getRed(index), green - palette.getGreen(index),
+                    blue - palette.getBlue(index));
+
+                if (k + 1 < width) {
+                    job.completed.lazySet(y, k + 1);
+                }
+            } else if (job.thresholds != null) {
+                int offset = Math.round(thresholdSpread * (job.thresholds.get(x, y) - 0.5f));
+                r = Math.max(0, Math.min(255, r + offset));
+                g = Math.max(0, Math.min(255, g + offset));
+                b = Math.max(0, Math.min(255, b + offset));
+
+                index = cellIndex.nearest(x, y, r, g, b);
+                job.pixels[i] = rgb & 0xff000000 | r << 16 | g << 8 | b;
+            } else {
+                index = cellIndex.nearest(x, y, r, g, b);
+            }
+
+            job.indices[i] = index;
+            job.consumer.accept(x, y, index);
+        }
+
+        if (job.diffuse) {
+            // every row sharing error with this one is done with it, so it can be reused by a row further down
+            Arrays.fill(job.errors, row, row + width * 3, 0);
+            job.completed.lazySet(y, width);
+        }
+    }
+
+    /**
+     * Shares out the error of a cell between the cells after it, as given by the kernel.
+     *
+     * @param forward Whether the cell's row is scanned left to right.
+     */
+    private void distributeError(Job job, int x, int y, boolean forward, float errorR, float errorG, float errorB) {
+        for (int t = 0; t < kernel.size(); t++) {
+            int nx = forward ? x + kernel.getColumn(t) : x - kernel.getColumn(t);
+            int ny = y + kernel.getRow(t);
+            if (nx < 0 || nx >= job.width || ny >= job.height) {
+                continue;
+            }
+
+            int e = ((ny % job.ring) * job.width + nx) * 3;
+            float share = kernel.getShare(t);
+            job.errors[e] += errorR * share;
+            job.errors[e + 1] += errorG * share;
+            job.errors[e + 2] += errorB * share;
+        }
+    }
+
+    /**
+     * Makes sure a value is within the range 0 to 255 (inclusive).
+     */
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Waits for a row to complete at least the given number of cells.
+     *
+     * @return Number of cells the row has completed.
+     */
+    private static int await(Job job, int row, int needed) {
+        for (int spins = 0; ; spins++) {
+            int done = job.completed.get(row);
+            if (done >= needed) {
+                return done;
+            }
+
+            if (job.failed) {
+                throw new IllegalStateException("Another row failed to match.");
+            }
+
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * State of one call to {@link #matchAsync}, shared by its workers.
+     */
+    private static final class Job {
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+        private final boolean diffuse;
+        private final ThresholdMatrix thresholds;
+        private final int[] indices;
+
+        /**
+         * Number of cells of each row that are done, in scan order.
+         */
+        private final AtomicIntegerArray completed;
+
+        /**
+         * Error diffused into each cell of the rows in progress, three channels per cell. Row y is kept at
+         * {@code y % ring}.
+         */
+        private final float[] errors;
+        private final int ring;
+        private final CellConsumer consumer;
+        private volatile boolean failed;
+
+        private Job(int[] pixels, int width, int height, boolean diffuse, ThresholdMatrix thresholds, int[] indices,
+                    AtomicIntegerArray completed, float[] errors, int ring, CellConsumer consumer) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.diffuse = diffuse;
+            this.thresholds = thresholds;
+            this.indices = indices;
+            this.completed = completed;
+            this.errors = errors;
+            this.ring = ring;
+            this.consumer = consumer;
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package classes;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for writing a picture one horizontal band of rows at a
+ * time, so the whole picture never has to be in memory at once
+ */
+public interface BandWriter extends Closeable {
+    public int getWidth(); // the width of the picture being written
+
+    public int getHeight(); // the height of the picture being written
+
+    public void writeBand(int[] pixels, int offset, int scansize, int rows) throws IOException; // write the next rows of pixels as ints
+
+    public void close() throws IOException; // finish the picture, after every row has been written
+}
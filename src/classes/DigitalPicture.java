@@ -24,6 +24,11 @@ public interface DigitalPicture
   public BufferedImage getBufferedImage(); // get the buffered image
   public int getBasicPixel(int x, int y); // get the pixel information as an int   
   public void setBasicPixel(int x, int y, int rgb); // set the pixel information
+  public int[] getBasicPixels(int x, int y, int width, int height, int[] pixels, int offset, int scansize); // get a region of pixels as ints
+  public void setBasicPixels(int x, int y, int width, int height, int[] pixels, int offset, int scansize); // set a region of pixels from ints
+  public int[] getBasicRow(int y, int[] row); // get a row of pixels as ints
+  public void setBasicRow(int y, int[] row); // set a row of pixels from ints
+  public int[] getIntData(); // get the ints backing the pixels, or null if there aren't any
   public Pixel getPixel(int x, int y); // get the pixel information as an object
   public Pixel[] getPixels(); // get all pixels in row-major order
   public Pixel[][] getPixels2D(); // get 2-D array of pixels in row-major order
@@ -0,0 +1,484 @@
+package classes;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A picture whose pixels are kept in a memory-mapped file instead of
+ * on the heap, so it can be far larger than the heap.  Pixels are
+ * stored as big-endian RGB ints, one row after another, so the file
+ * reads the same on any platform, and the file is mapped in chunks of
+ * whole rows.  Different regions can be read and written
+ * from different threads at the same time.
+ * <p>
+ * There is no {@link BufferedImage} behind the picture, so showing
+ * or exploring it shows a copy shrunk to fit on the heap.  Copy
+ * regions of it into a {@link Picture} to look at them in full, or
+ * write it to a file.
+ */
+public class MappedPicture implements DigitalPicture, Closeable {
+    /**
+     * Most bytes mapped in one chunk
+     */
+    private static final long CHUNK_BYTES = 1 << 30;
+
+    /**
+     * Most pixels along the longer side of the copy that is shown or
+     * explored
+     */
+    private static final int VIEW_SIZE = 2048;
+
+    private final File file;
+    private final boolean temporary;
+    private final int width;
+    private final int height;
+    private final int rowsPerChunk;
+    private IntBuffer[] chunks;
+    private String title;
+    private Picture shown;
+
+    ///////////////////// constructors //////////////////////////////////
+
+    /**
+     * Constructor that creates a black picture in a temporary file,
+     * which is deleted when the picture is closed
+     *
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     */
+    public MappedPicture(int width, int height) throws IOException {
+        this(Files.createTempFile("picture", ".rgb").toFile(), width, height, true);
+    }
+
+    /**
+     * Constructor that keeps the pixels in the given file.  Pixels
+     * already in the file are kept, and the file is grown with black
+     * pixels if it is too small
+     *
+     * @param file   the file to keep the pixels in
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     */
+    public MappedPicture(File file, int width, int height) throws IOException {
+        this(file, width, height, false);
+    }
+
+    private MappedPicture(File file, int width, int height, boolean temporary) throws IOException {
+        if (width <= 0 || height <= 0 || width > CHUNK_BYTES / Integer.BYTES) {
+            throw new IllegalArgumentException("Can't map a " + width + "x" + height + " picture");
+        }
+
+        this.file = file;
+        this.temporary = temporary;
+        this.width = width;
+        this.height = height;
+        this.rowsPerChunk = (int) Math.min(height, CHUNK_BYTES / ((long) width * Integer.BYTES));
+        this.title = file.getName();
+
+        if (temporary) {
+            file.deleteOnExit();
+        }
+
+        // a mapping stays valid after its channel is closed
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            chunks = new IntBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * rowsPerChunk * width * Integer.BYTES;
+                long size = (long) Math.min(rowsPerChunk, height - i * rowsPerChunk) * width * Integer.BYTES;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size)
+                        .order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            }
+        }
+    }
+
+    ////////////////////////// methods //////////////////////////////////
+
+    /**
+     * Method to get the file the pixels are kept in
+     *
+     * @return the name of the file
+     */
+    public String getFileName() {
+        return file.getPath();
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Method to get an image of the picture, which there isn't one of
+     *
+     * @return null
+     */
+    public Image getImage() {
+        return null;
+    }
+
+    /**
+     * Method to get a buffered image of the picture, which there isn't
+     * one of
+     *
+     * @return null
+     */
+    public BufferedImage getBufferedImage() {
+        return null;
+    }
+
+    public int getBasicPixel(int x, int y) {
+        checkRegion(x, y, 1, 1);
+        return 0xff000000 | chunk(y).get(index(x, y));
+    }
+
+    public void setBasicPixel(int x, int y, int rgb) {
+        checkRegion(x, y, 1, 1);
+        chunk(y).put(index(x, y), rgb & 0xffffff);
+    }
+
+    /**
+     * Method to get a region of pixels as ints, with full alpha
+     *
+     * @param x        the x of the top left pixel
+     * @param y        the y of the top left pixel
+     * @param width    the width of the region
+     * @param height   the height of the region
+     * @param pixels   the array to store the pixels in, or null for a
+     *                 new one
+     * @param offset   the index in the array of the top left pixel
+     * @param scansize the distance between the starts of two rows in
+     *                 the array
+     * @return the array of pixels
+     */
+    public int[] getBasicPixels(int x, int y, int width, int height, int[] pixels, int offset, int scansize) {
+        checkRegion(x, y, width, height);
+        if (pixels == null) {
+            pixels = new int[offset + height * scansize];
+        }
+
+        for (int row = 0; row < height; row++) {
+            int start = offset + row * scansize;
+            chunk(y + row).get(index(x, y + row), pixels, start, width);
+            for (int i = start; i < start + width; i++) {
+                pixels[i] |= 0xff000000;
+            }
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Method to set a region of pixels from ints.  Alpha is dropped,
+     * and pixels are always read back with full alpha
+     *
+     * @param x        the x of the top left pixel
+     * @param y        the y of the top left pixel
+     * @param width    the width of the region
+     * @param height   the height of the region
+     * @param pixels   the pixels to set
+     * @param offset   the index in the array of the top left pixel
+     * @param scansize the distance between the starts of two rows in
+     *                 the array
+     */
+    public void setBasicPixels(int x, int y, int width, int height, int[] pixels, int offset, int scansize) {
+        checkRegion(x, y, width, height);
+
+        for (int r = 0; r < height; r++) {
+            IntBuffer chunk = chunk(y + r);
+            int index = index(x, y + r);
+            int start = offset + r * scansize;
+
+            // mask while putting, like setBasicPixel, so both store the same bytes
+            for (int i = 0; i < width; i++) {
+                chunk.put(index + i, pixels[start + i] & 0xffffff);
+            }
+        }
+    }
+
+    public int[] getBasicRow(int y, int[] row) {
+        return getBasicPixels(0, y, width, 1, row, 0, width);
+    }
+
+    public void setBasicRow(int y, int[] row) {
+        setBasicPixels(0, y, width, 1, row, 0, width);
+    }
+
+    /**
+     * Method to get the ints backing the pixels, which aren't on the
+     * heap
+     *
+     * @return null
+     */
+    public int[] getIntData() {
+        return null;
+    }
+
+    public Pixel getPixel(int x, int y) {
+        return new Pixel(this, x, y);
+    }
+
+    /**
+     * Method to get a one-dimensional array of Pixels for this picture.
+     * Only use this on pictures small enough to have an object per
+     * pixel
+     *
+     * @return a one-dimensional array of Pixel objects starting with y=0
+     * to y=height-1 and x=0 to x=width-1.
+     */
+    public Pixel[] getPixels() {
+        Pixel[] pixelArray = new Pixel[width * height];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixelArray[y * width + x] = new Pixel(this, x, y);
+            }
+        }
+
+        return pixelArray;
+    }
+
+    /**
+     * Method to get a two-dimensional array of Pixels for this picture.
+     * Only use this on pictures small enough to have an object per
+     * pixel
+     *
+     * @return a two-dimensional array of Pixel objects in row-major order.
+     */
+    public Pixel[][] getPixels2D() {
+        Pixel[][] pixelArray = new Pixel[height][width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixelArray[y][x] = new Pixel(this, x, y);
+            }
+        }
+
+        return pixelArray;
+    }
+
+    /**
+     * Method to draw an image onto the picture, starting at 0,0.  The
+     * image is drawn one band of rows at a time so only a band is ever
+     * on the heap
+     *
+     * @param image the image to draw
+     */
+    public void load(Image image) {
+        int bandHeight = Math.max(1, Math.min(height, (1 << 20) / width));
+        BufferedImage band = new BufferedImage(width, bandHeight, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width * bandHeight];
+
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+
+            // start from what is already there, like drawing on a picture
+            getBasicPixels(0, top, width, rows, pixels, 0, width);
+            band.setRGB(0, 0, width, rows, pixels, 0, width);
+
+            Graphics2D graphics2d = band.createGraphics();
+            graphics2d.drawImage(image, 0, -top, null);
+            graphics2d.dispose();
+
+            band.getRGB(0, 0, width, rows, pixels, 0, width);
+            setBasicPixels(0, top, width, rows, pixels, 0, width);
+        }
+    }
+
+    /**
+     * Method to draw a picture from a file onto this one, starting at
+     * 0,0
+     *
+     * @param fileName the file to read the picture from
+     * @return true if success else false
+     */
+    public boolean load(String fileName) {
+        try {
+            BufferedImage image = ImageIO.read(new File(fileName));
+            if (image == null) {
+                throw new IOException("No reader for " + fileName);
+            }
+
+            load(image);
+            return true;
+        } catch (Exception ex) {
+            System.out.println("There was an error trying to open " + fileName);
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Method to show the picture.  A copy of it, shrunk to at most
+     * {@value #VIEW_SIZE} pixels on its longer side, is shown, and
+     * showing it again updates the copy
+     */
+    public void show() {
+        if (shown == null) {
+            shown = view();
+        } else {
+            copyView(shown);
+        }
+
+        shown.setTitle(title);
+        shown.show();
+    }
+
+    /**
+     * Method to explore the picture.  A copy of it, shrunk to at most
+     * {@value #VIEW_SIZE} pixels on its longer side, is explored
+     */
+    public void explore() {
+        Picture view = view();
+        view.setTitle(title);
+        view.explore();
+    }
+
+    /**
+     * Method to copy the picture into one on the heap, keeping every
+     * step-th pixel of every step-th row so it is at most
+     * {@value #VIEW_SIZE} pixels on its longer side
+     *
+     * @return the copy
+     */
+    private Picture view() {
+        int step = viewStep();
+        Picture view = new Picture((height + step - 1) / step, (width + step - 1) / step);
+        copyView(view);
+        return view;
+    }
+
+    private void copyView(Picture view) {
+        int step = viewStep();
+        int viewWidth = view.getWidth();
+        int[] row = new int[width];
+        int[] viewRow = new int[viewWidth];
+
+        for (int y = 0; y < view.getHeight(); y++) {
+            getBasicPixels(0, y * step, width, 1, row, 0, width);
+            for (int x = 0; x < viewWidth; x++) {
+                viewRow[x] = row[x * step];
+            }
+            view.setBasicPixels(0, y, viewWidth, 1, viewRow, 0, viewWidth);
+        }
+    }
+
+    private int viewStep() {
+        return (Math.max(width, height) + VIEW_SIZE - 1) / VIEW_SIZE;
+    }
+
+    /**
+     * Method to write the picture to a file, one band of rows at a
+     * time.  Files ending in .ppm are written as binary PPM and anything
+     * else as PNG
+     *
+     * @param fileName the name of the file to write the picture to
+     * @return true if success else false
+     */
+    public boolean write(String fileName) {
+        try {
+            writeOrFail(fileName);
+            return true;
+        } catch (Exception ex) {
+            System.out.println("There was an error trying to write " + fileName);
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Method to write the picture to a file, one band of rows at a
+     * time
+     *
+     * @param fileName the name of the file to write the picture to
+     * @throws IOException if the file can't be written
+     */
+    public void writeOrFail(String fileName) throws IOException {
+        // the stream is its own resource, so it's closed even if the
+        // writer can't be made
+        try (OutputStream out = new FileOutputStream(fileName);
+             BandWriter writer = fileName.toLowerCase().endsWith(".ppm")
+                     ? new PpmBandWriter(out, width, height)
+                     : new PngBandWriter(out, width, height)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Method to pass the whole picture to a band writer.  The writer
+     * isn't closed
+     *
+     * @param writer the writer to pass the rows to
+     * @throws IOException if the writer fails
+     */
+    public void write(BandWriter writer) throws IOException {
+        int bandHeight = Math.max(1, Math.min(height, (1 << 20) / width));
+        int[] pixels = new int[width * bandHeight];
+
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+            getBasicPixels(0, top, width, rows, pixels, 0, width);
+            writer.writeBand(pixels, 0, width, rows);
+        }
+    }
+
+    /**
+     * Method to let go of the mapped pixels, deleting the file if it
+     * was temporary.  The memory is given back once the mapping is
+     * garbage collected.  Using the pixels after this throws an
+     * IllegalStateException
+     */
+    public void close() throws IOException {
+        chunks = null;
+
+        if (temporary) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    public String toString() {
+        return "Mapped Picture, filename " + getFileName() + " height " + height + " width " + width;
+    }
+
+    private IntBuffer chunk(int y) {
+        IntBuffer[] chunks = this.chunks;
+        if (chunks == null) {
+            throw new IllegalStateException("picture is closed");
+        }
+
+        return chunks[y / rowsPerChunk];
+    }
+
+    private int index(int x, int y) {
+        return (y % rowsPerChunk) * width + x;
+    }
+
+    private void checkRegion(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height) {
+            throw new IndexOutOfBoundsException("Region " + x + "," + y + " " + width + "x" + height
+                    + " is outside the " + this.width + "x" + this.height + " picture");
+        }
+    }
+}
@@ -4,6 +4,9 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
 
 /**
  * A class that represents a picture.  This class inherits from
@@ -13,6 +16,31 @@ import java.util.*;
  * @author Barbara Ericson ericson@cc.gatech.edu
  */
 public class Picture extends SimplePicture {
+    /**
+     * Kernel that sets the blue to 0
+     */
+    public static final IntUnaryOperator ZERO_BLUE = p -> p & ~0xff;
+
+    /**
+     * Kernel that inverts the red, green and blue
+     */
+    public static final IntUnaryOperator NEGATE = p -> p ^ 0xffffff;
+
+    /**
+     * Kernel that replaces the color with the average of the red,
+     * green and blue
+     */
+    public static final IntUnaryOperator GRAYSCALE = p -> {
+        int color = (Pixel.getRed(p) + Pixel.getBlue(p) + Pixel.getGreen(p)) / 3;
+        return withColor(p, color << 16 | color << 8 | color);
+    };
+
+    /**
+     * Pictures with more pixels than this are split between threads
+     * by {@link #apply(PixelKernel)}
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
     ///////////////////// constructors //////////////////////////////////
 
     /**
@@ -35,6 +63,19 @@ public class Picture extends SimplePicture {
         super(fileName);
     }
 
+    /**
+     * Constructor that takes a file name and creates a reduced size
+     * picture from it, decoding only as many pixels as needed
+     *
+     * @param fileName the name of the file to create the picture from
+     * @param height   the smallest height needed
+     * @param width    the smallest width needed
+     */
+    public Picture(String fileName, int height, int width) {
+        // let the parent class handle this fileName
+        super(fileName, width, height);
+    }
+
     /**
      * Constructor that takes the width and height
      *
@@ -86,11 +127,40 @@ public class Picture extends SimplePicture {
      * Method to set the blue to 0
      */
     public void zeroBlue() {
-        Pixel[][] pixels = this.getPixels2D();
-        for (Pixel[] rowArray : pixels) {
-            for (Pixel pixelObj : rowArray) {
-                pixelObj.setBlue(0);
-            }
+        apply(ZERO_BLUE);
+    }
+
+    /**
+     * Method to change every pixel with a kernel that only needs the
+     * old value of the pixel.  Several kernels are run one after the
+     * other on each pixel, so the picture is only read and written once.
+     *
+     * @param kernels the kernels to run, first to last
+     */
+    public void apply(IntUnaryOperator... kernels) {
+        IntUnaryOperator fused = IntUnaryOperator.identity();
+        for (IntUnaryOperator kernel : kernels) {
+            fused = fused.andThen(kernel);
+        }
+
+        IntUnaryOperator finalFused = fused;
+        apply((x, y, argb) -> finalFused.applyAsInt(argb));
+    }
+
+    /**
+     * Method to change every pixel with a kernel.  The pixels are
+     * changed in place without creating Pixel objects, and large
+     * pictures are split into bands of rows that are worked on by
+     * different threads of the common fork-join pool.
+     *
+     * @param kernel the kernel to run on each pixel
+     */
+    public void apply(PixelKernel kernel) {
+        KernelTask task = new KernelTask(this, kernel, 0, getHeight());
+        if ((long) getWidth() * getHeight() > PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
         }
     }
 
@@ -99,21 +169,19 @@ public class Picture extends SimplePicture {
      */
     public void mirrorTemple() {
         int mirrorPoint = 276;
-        Pixel leftPixel = null;
-        Pixel rightPixel = null;
-        int count = 0;
-        Pixel[][] pixels = this.getPixels2D();
+        int[] row = new int[getWidth()];
 
         // loop through the rows
-        for (int row = 27; row < 97; row++) {
+        for (int y = 27; y < 97; y++) {
+            getBasicRow(y, row);
+
             // loop from 13 to just before the mirror point
             for (int col = 13; col < mirrorPoint; col++) {
-
-                leftPixel = pixels[row][col];
-                rightPixel = pixels[row]
-                    [mirrorPoint - col + mirrorPoint];
-                rightPixel.setColor(leftPixel.getColor());
+                int right = mirrorPoint - col + mirrorPoint;
+                row[right] = withColor(row[right], row[col]);
             }
+
+            setBasicRow(y, row);
         }
     }
 
@@ -128,23 +196,8 @@ public class Picture extends SimplePicture {
      */
     public void copy(Picture fromPic,
                      int startRow, int startCol) {
-        Pixel fromPixel = null;
-        Pixel toPixel = null;
-        Pixel[][] toPixels = this.getPixels2D();
-        Pixel[][] fromPixels = fromPic.getPixels2D();
-        for (int fromRow = 0, toRow = startRow;
-             fromRow < fromPixels.length &&
-                 toRow < toPixels.length;
-             fromRow++, toRow++) {
-            for (int fromCol = 0, toCol = startCol;
-                 fromCol < fromPixels[0].length &&
-                     toCol < toPixels[0].length;
-                 fromCol++, toCol++) {
-                fromPixel = fromPixels[fromRow][fromCol];
-                toPixel = toPixels[toRow][toCol];
-                toPixel.setColor(fromPixel.getColor());
-            }
-        }
+        copyRegion(fromPic, 0, 0, this, startCol, startRow,
+            fromPic.getWidth(), fromPic.getHeight());
     }
 
     /**
@@ -153,22 +206,26 @@ public class Picture extends SimplePicture {
      * @param edgeDist the distance for finding edges
      */
     public void edgeDetection(int edgeDist) {
-        Pixel leftPixel = null;
-        Pixel rightPixel = null;
-        Pixel[][] pixels = this.getPixels2D();
-        Color rightColor = null;
-        for (int row = 0; row < pixels.length; row++) {
-            for (int col = 0;
-                 col < pixels[0].length - 1; col++) {
-                leftPixel = pixels[row][col];
-                rightPixel = pixels[row][col + 1];
-                rightColor = rightPixel.getColor();
-                if (leftPixel.colorDistance(rightColor) >
-                    edgeDist)
-                    leftPixel.setColor(Color.BLACK);
+        int[] row = new int[getWidth()];
+        for (int y = 0; y < getHeight(); y++) {
+            getBasicRow(y, row);
+            for (int col = 0; col < row.length - 1; col++) {
+                int left = row[col];
+                int right = row[col + 1];
+
+                double redDistance = Pixel.getRed(left) - Pixel.getRed(right);
+                double greenDistance = Pixel.getGreen(left) - Pixel.getGreen(right);
+                double blueDistance = Pixel.getBlue(left) - Pixel.getBlue(right);
+                double distance = Math.sqrt(redDistance * redDistance +
+                    greenDistance * greenDistance +
+                    blueDistance * blueDistance);
+
+                if (distance > edgeDist)
+                    row[col] = withColor(left, 0x000000);
                 else
-                    leftPixel.setColor(Color.WHITE);
+                    row[col] = withColor(left, 0xffffff);
             }
+            setBasicRow(y, row);
         }
     }
 
@@ -216,16 +273,14 @@ public class Picture extends SimplePicture {
      * from left to right
      */
     public void mirrorVertical() {
-        Pixel[][] pixels = this.getPixels2D();
-        Pixel leftPixel = null;
-        Pixel rightPixel = null;
-        int width = pixels[0].length;
-        for (int row = 0; row < pixels.length; row++) {
+        int width = getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < getHeight(); y++) {
+            getBasicRow(y, row);
             for (int col = 0; col < width / 2; col++) {
-                leftPixel = pixels[row][col];
-                rightPixel = pixels[row][width - 1 - col];
-                rightPixel.setColor(leftPixel.getColor());
+                row[width - 1 - col] = withColor(row[width - 1 - col], row[col]);
             }
+            setBasicRow(y, row);
         }
     }
 
@@ -235,16 +290,14 @@ public class Picture extends SimplePicture {
      * from right to left
      */
     public void mirrorVertical2() {
-        Pixel[][] pixels = this.getPixels2D();
-        Pixel leftPixel = null;
-        Pixel rightPixel = null;
-        int width = pixels[0].length;
-        for (int row = 0; row < pixels.length; row++) {
+        int width = getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < getHeight(); y++) {
+            getBasicRow(y, row);
             for (int col = 0; col < width / 2; col++) {
-                leftPixel = pixels[row][col];
-                rightPixel = pixels[row][width - 1 - col];
-                leftPixel.setColor(rightPixel.getColor());
+                row[col] = withColor(row[col], row[width - 1 - col]);
             }
+            setBasicRow(y, row);
         }
     }
 
@@ -255,19 +308,16 @@ public class Picture extends SimplePicture {
      */
     public void mirrorHorizontal() {
         int height = getHeight(), width = getWidth();
-        Pixel[][] pixels = this.getPixels2D();
-
-
-        Pixel topPixel = null;
-        Pixel bottomPixel = null;
+        int[] topRow = new int[width];
+        int[] bottomRow = new int[width];
 
         for (int row = 0; row < height / 2; row++) {
+            getBasicRow(row, topRow);
+            getBasicRow(height - row - 1, bottomRow);
             for (int col = 0; col < width; col++) {
-                topPixel = pixels[row][col];
-                bottomPixel = pixels[height - row - 1][col];
-
-                bottomPixel.setColor(topPixel.getColor());
+                bottomRow[col] = withColor(bottomRow[col], topRow[col]);
             }
+            setBasicRow(height - row - 1, bottomRow);
         }
     }
 
@@ -278,37 +328,94 @@ public class Picture extends SimplePicture {
      */
     public void mirrorHorizontal2() {
         int height = getHeight(), width = getWidth();
-        Pixel[][] pixels = this.getPixels2D();
-
-
-        Pixel topPixel = null;
-        Pixel bottomPixel = null;
+        int[] topRow = new int[width];
+        int[] bottomRow = new int[width];
 
         for (int row = 0; row < height / 2; row++) {
+            getBasicRow(row, topRow);
+            getBasicRow(height - row - 1, bottomRow);
             for (int col = 0; col < width; col++) {
-                topPixel = pixels[row][col];
-                bottomPixel = pixels[height - row - 1][col];
-
-                topPixel.setColor(bottomPixel.getColor());
+                topRow[col] = withColor(topRow[col], bottomRow[col]);
             }
+            setBasicRow(row, topRow);
         }
     }
 
     public void negate() {
-        for (Pixel p : getPixels()) {
-            p.setRed(255 - p.getRed());
-            p.setBlue(255 - p.getBlue());
-            p.setGreen(255 - p.getGreen());
-        }
+        apply(NEGATE);
     }
 
     public void grayscale() {
-        for (Pixel p : getPixels()) {
-            int color = (p.getRed() + p.getBlue() + p.getGreen()) / 3;
+        apply(GRAYSCALE);
+    }
+
+    /**
+     * Replaces the red, green and blue of a pixel, keeping its alpha
+     * the way {@link Pixel#setColor(Color)} does
+     *
+     * @param pixel the pixel value to change
+     * @param color the new color as an rgb int
+     * @return the new pixel value
+     */
+    private static int withColor(int pixel, int color) {
+        return (pixel & 0xff000000) | (color & 0xffffff);
+    }
+
+    /**
+     * Runs a kernel over a band of rows, splitting the band in half
+     * until it is small enough to do on one thread
+     */
+    private static class KernelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Picture picture;
+        private final PixelKernel kernel;
+        private final int startRow;
+        private final int endRow;
+
+        KernelTask(Picture picture, PixelKernel kernel, int startRow, int endRow) {
+            this.picture = picture;
+            this.kernel = kernel;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
 
-            p.setRed(color);
-            p.setBlue(color);
-            p.setGreen(color);
+        protected void compute() {
+            int width = picture.getWidth();
+            if ((long) width * (endRow - startRow) > PARALLEL_THRESHOLD && endRow - startRow > 1) {
+                int middle = (startRow + endRow) >>> 1;
+                invokeAll(new KernelTask(picture, kernel, startRow, middle),
+                    new KernelTask(picture, kernel, middle, endRow));
+                return;
+            }
+
+            // change the backing array directly when there is one
+            int[] data = picture.getIntData();
+            if (data != null) {
+                boolean noAlpha = picture.getBufferedImage().getType() == BufferedImage.TYPE_INT_RGB;
+                for (int y = startRow; y < endRow; y++) {
+                    int i = y * width;
+                    if (noAlpha) {
+                        for (int x = 0; x < width; x++, i++) {
+                            data[i] = kernel.apply(x, y, data[i] | 0xff000000) & 0xffffff;
+                        }
+                    } else {
+                        for (int x = 0; x < width; x++, i++) {
+                            data[i] = kernel.apply(x, y, data[i]);
+                        }
+                    }
+                }
+                return;
+            }
+
+            int[] row = new int[width];
+            for (int y = startRow; y < endRow; y++) {
+                picture.getBasicRow(y, row);
+                for (int x = 0; x < width; x++) {
+                    row[x] = kernel.apply(x, y, row[x]);
+                }
+                picture.setBasicRow(y, row);
+            }
         }
     }
 
@@ -0,0 +1,61 @@
+package classes;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A function that works out the new value of a pixel from its
+ * location and its old value.  Pixel values are ints with alpha,
+ * red, green and blue each taking 8 bits from left to right, the same
+ * as {@link DigitalPicture#getBasicPixel(int, int)}.  Kernels are run
+ * by {@link Picture#apply(PixelKernel)} and may be run on several
+ * threads at once, so they shouldn't change any shared state.
+ *
+ * @see Picture#apply(PixelKernel)
+ */
+@FunctionalInterface
+public interface PixelKernel
+{
+  /**
+   * Method to work out the new value of a pixel
+   * @param x the x location of the pixel
+   * @param y the y location of the pixel
+   * @param argb the old value of the pixel
+   * @return the new value of the pixel
+   */
+  int apply(int x, int y, int argb);
+  
+  /**
+   * Method to make a kernel that runs this kernel and then the next
+   * one on the result, so both happen in one pass over the picture
+   * @param next the kernel to run second
+   * @return the combined kernel
+   */
+  default PixelKernel andThen(PixelKernel next)
+  {
+    return (x, y, argb) -> next.apply(x, y, apply(x, y, argb));
+  }
+  
+  /**
+   * Method to make a kernel out of one that only needs the old value
+   * @param kernel the function of the old value
+   * @return the kernel
+   */
+  static PixelKernel of(IntUnaryOperator kernel)
+  {
+    return (x, y, argb) -> kernel.applyAsInt(argb);
+  }
+  
+  /**
+   * Method to combine several kernels into one that runs them in
+   * order, so they all happen in one pass over the picture
+   * @param kernels the kernels to run, first to last
+   * @return the combined kernel
+   */
+  static PixelKernel fuse(PixelKernel... kernels)
+  {
+    PixelKernel fused = (x, y, argb) -> argb;
+    for (PixelKernel kernel : kernels)
+      fused = fused.andThen(kernel);
+    return fused;
+  }
+}
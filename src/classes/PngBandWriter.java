@@ -0,0 +1,186 @@
+package classes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a picture as a PNG stream, one band of rows at a time.
+ * Each band is compressed as it arrives and flushed out as its own
+ * IDAT chunks, so only one row of the picture is held at a time
+ */
+public class PngBandWriter implements BandWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] row;
+    private final byte[] buffer = new byte[1 << 16];
+    private int buffered;
+    private int rowsWritten;
+
+    /**
+     * Constructor that writes the header of the picture, using the
+     * default compression level
+     *
+     * @param out    the stream to write to, closed by {@link #close()}
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     */
+    public PngBandWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor that writes the header of the picture
+     *
+     * @param out    the stream to write to, closed by {@link #close()}
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     * @param level  the compression level, from 0 to 9
+     */
+    public PngBandWriter(OutputStream out, int width, int height, int level) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Picture must be at least 1x1, was " + width + "x" + height);
+        }
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.width = width;
+        this.height = height;
+        this.deflater = new Deflater(level);
+        this.row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bits per sample
+        header[9] = 2; // truecolor, no alpha
+        writeChunk("IHDR", header, header.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Method to write the next rows of the picture.  Each row is
+     * stored with the Sub filter, which stores each byte as the
+     * difference from the same channel of the pixel to its left
+     *
+     * @param pixels   the pixels as ints
+     * @param offset   the index of the first pixel
+     * @param scansize the distance between the starts of two rows
+     * @param rows     the number of rows to write
+     */
+    public void writeBand(int[] pixels, int offset, int scansize, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Picture is only " + height + " rows high");
+        }
+
+        for (int y = 0; y < rows; y++) {
+            int start = offset + y * scansize;
+            int left = 0;
+
+            row[0] = 1; // Sub filter
+            for (int x = 0, i = 1; x < width; x++) {
+                int pixel = pixels[start + x];
+                row[i++] = (byte) ((pixel >> 16) - (left >> 16));
+                row[i++] = (byte) ((pixel >> 8) - (left >> 8));
+                row[i++] = (byte) (pixel - left);
+                left = pixel;
+            }
+
+            deflater.setInput(row);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+        }
+
+        // end the band on a byte boundary so it can go out now
+        while (deflate(Deflater.SYNC_FLUSH)) {
+        }
+        flushChunk();
+
+        rowsWritten += rows;
+    }
+
+    /**
+     * Method to finish the picture and close the stream
+     */
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            flushChunk();
+            writeChunk("IEND", buffer, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Method to compress into the buffer, writing it out as an IDAT
+     * chunk whenever it fills up
+     *
+     * @param flush the flush mode
+     * @return true if the buffer filled up, so there may be more to
+     * compress
+     */
+    private boolean deflate(int flush) throws IOException {
+        buffered += deflater.deflate(buffer, buffered, buffer.length - buffered, flush);
+
+        if (buffered == buffer.length) {
+            flushChunk();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void flushChunk() throws IOException {
+        if (buffered > 0) {
+            writeChunk("IDAT", buffer, buffered);
+            buffered = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+
+        crc.reset();
+        crc.update(name);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
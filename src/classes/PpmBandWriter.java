@@ -0,0 +1,82 @@
+package classes;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a picture as a binary PPM (P6) stream, one band of rows at
+ * a time
+ */
+public class PpmBandWriter implements BandWriter {
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final byte[] row;
+    private int rowsWritten;
+
+    /**
+     * Constructor that writes the header of the picture
+     *
+     * @param out    the stream to write to, closed by {@link #close()}
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     */
+    public PpmBandWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[width * 3];
+
+        this.out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Method to write the next rows of the picture
+     *
+     * @param pixels   the pixels as ints
+     * @param offset   the index of the first pixel
+     * @param scansize the distance between the starts of two rows
+     * @param rows     the number of rows to write
+     */
+    public void writeBand(int[] pixels, int offset, int scansize, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Picture is only " + height + " rows high");
+        }
+
+        for (int y = 0; y < rows; y++) {
+            int start = offset + y * scansize;
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = pixels[start + x];
+                row[i++] = (byte) (pixel >> 16);
+                row[i++] = (byte) (pixel >> 8);
+                row[i++] = (byte) pixel;
+            }
+            out.write(row);
+        }
+
+        rowsWritten += rows;
+    }
+
+    /**
+     * Method to finish the picture and close the stream
+     */
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
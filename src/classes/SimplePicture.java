@@ -1,11 +1,18 @@
 package classes;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
-import javax.swing.ImageIcon;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.awt.*;
 import java.io.*;
 import java.awt.geom.*;
+import java.util.Iterator;
 
 /**
  * A class that represents a simple picture.  A simple picture may have
@@ -74,6 +81,18 @@ public class SimplePicture implements DigitalPicture
    
  }
  
+ /**
+  * A Constructor that takes a file name and loads a reduced size picture
+  * from it.  See {@link #loadOrFail(String, Rectangle, int, int)}.
+  * @param fileName the file name to use in creating the picture
+  * @param width the smallest width needed
+  * @param height the smallest height needed
+  */
+ public SimplePicture(String fileName, int width, int height)
+ {
+   load(fileName,null,width,height);
+ }
+ 
  /**
   * A constructor that takes the width and height desired for a picture and
   * creates a buffered image of that size.  This constructor doesn't 
@@ -153,27 +172,115 @@ public class SimplePicture implements DigitalPicture
   */
  public void copyPicture(SimplePicture sourcePicture)
  {
-   Pixel sourcePixel = null;
-   Pixel targetPixel = null;
+   copyRegion(sourcePicture,0,0,this,0,0,
+              sourcePicture.getWidth(),sourcePicture.getHeight());
+ }
+ 
+ /**
+  * Method to copy a rectangle of pixels from one picture to another.
+  * The rectangle is clipped to both pictures.  The color of each pixel
+  * is copied but the target keeps its own alpha (transparency), the
+  * same as {@link Pixel#setColor(Color)}.  Whole rows are copied at a
+  * time: straight between the int arrays or rasters of the pictures
+  * when they are stored the same way, or converted through ints when
+  * they aren't.
+  * @param from the picture to copy from
+  * @param fromX the x coordinate of the left of the rectangle in from
+  * @param fromY the y coordinate of the top of the rectangle in from
+  * @param to the picture to copy to
+  * @param toX the x coordinate to copy the left of the rectangle to
+  * @param toY the y coordinate to copy the top of the rectangle to
+  * @param width the width of the rectangle
+  * @param height the height of the rectangle
+  */
+ public static void copyRegion(DigitalPicture from, int fromX, int fromY,
+                               DigitalPicture to, int toX, int toY,
+                               int width, int height)
+ {
+   // clip the rectangle to the left and top of both pictures
+   int skipX = Math.max(0, Math.max(-fromX, -toX));
+   int skipY = Math.max(0, Math.max(-fromY, -toY));
+   fromX += skipX; toX += skipX; width -= skipX;
+   fromY += skipY; toY += skipY; height -= skipY;
+   
+   // clip the rectangle to the right and bottom of both pictures
+   width = Math.min(width, Math.min(from.getWidth() - fromX, to.getWidth() - toX));
+   height = Math.min(height, Math.min(from.getHeight() - fromY, to.getHeight() - toY));
+   if (width <= 0 || height <= 0)
+     return;
+   
+   int[] fromData = from.getIntData();
+   int[] toData = to.getIntData();
+   boolean fromAlpha = hasAlpha(from);
+   boolean toAlpha = hasAlpha(to);
    
-   // loop through the columns
-   for (int sourceX = 0, targetX = 0; 
-        sourceX < sourcePicture.getWidth() &&
-        targetX < this.getWidth();
-        sourceX++, targetX++)
+   // copy between int arrays, which is all that is needed when
+   // neither picture stores alpha
+   if (fromData != null && toData != null)
    {
-     // loop through the rows
-     for (int sourceY = 0, targetY = 0; 
-          sourceY < sourcePicture.getHeight() && 
-          targetY < this.getHeight();
-          sourceY++, targetY++)
+     for (int row = 0; row < height; row++)
      {
-       sourcePixel = sourcePicture.getPixel(sourceX,sourceY);
-       targetPixel = this.getPixel(targetX,targetY);
-       targetPixel.setColor(sourcePixel.getColor());
+       int fromIndex = (fromY + row) * from.getWidth() + fromX;
+       int toIndex = (toY + row) * to.getWidth() + toX;
+       if (!fromAlpha && !toAlpha)
+         System.arraycopy(fromData,fromIndex,toData,toIndex,width);
+       else
+         for (int i = 0; i < width; i++)
+           toData[toIndex + i] = (toAlpha ? toData[toIndex + i] & 0xff000000 : 0) |
+                                 (fromData[fromIndex + i] & 0xffffff);
      }
+     return;
    }
    
+   // copy between rasters that store pixels the same way
+   if (!toAlpha && from instanceof SimplePicture && to instanceof SimplePicture)
+   {
+     BufferedImage fromImage = from.getBufferedImage();
+     BufferedImage toImage = to.getBufferedImage();
+     if (fromImage.getColorModel().equals(toImage.getColorModel()) &&
+         fromImage.getSampleModel().getClass() == toImage.getSampleModel().getClass() &&
+         fromImage.getSampleModel().getTransferType() == toImage.getSampleModel().getTransferType())
+     {
+       WritableRaster toRaster = toImage.getRaster();
+       Raster fromRaster = fromImage.getRaster();
+       Object rowData = null;
+       for (int row = 0; row < height; row++)
+       {
+         rowData = fromRaster.getDataElements(fromX,fromY + row,width,1,rowData);
+         toRaster.setDataElements(toX,toY + row,width,1,rowData);
+       }
+       return;
+     }
+   }
+   
+   // convert through ints one row at a time
+   int[] fromRow = new int[width];
+   int[] toRow = toAlpha ? new int[width] : fromRow;
+   for (int row = 0; row < height; row++)
+   {
+     from.getBasicPixels(fromX,fromY + row,width,1,fromRow,0,width);
+     if (toAlpha)
+     {
+       to.getBasicPixels(toX,toY + row,width,1,toRow,0,width);
+       for (int i = 0; i < width; i++)
+         toRow[i] = (toRow[i] & 0xff000000) | (fromRow[i] & 0xffffff);
+     }
+     to.setBasicPixels(toX,toY + row,width,1,toRow,0,width);
+   }
+ }
+ 
+ /**
+  * Method to check whether a picture stores alpha (transparency)
+  * @param picture the picture to check
+  * @return true if the picture has alpha else false
+  */
+ private static boolean hasAlpha(DigitalPicture picture)
+ {
+   if (picture instanceof MappedPicture)
+     return false;
+   
+   BufferedImage image = picture.getBufferedImage();
+   return image == null || image.getColorModel().hasAlpha();
  }
  
  /**
@@ -182,14 +289,16 @@ public class SimplePicture implements DigitalPicture
   */
  public void setAllPixelsToAColor(Color color)
  {
-   // loop through all x
-   for (int x = 0; x < this.getWidth(); x++)
+   int rgb = color.getRGB() & 0xffffff;
+   int[] row = new int[getWidth()];
+   
+   // loop through the rows, keeping the alpha of each pixel
+   for (int y = 0; y < this.getHeight(); y++)
    {
-     // loop through all y
-     for (int y = 0; y < this.getHeight(); y++)
-     {
-       getPixel(x,y).setColor(color);
-     }
+     getBasicRow(y,row);
+     for (int x = 0; x < row.length; x++)
+       row[x] = (row[x] & 0xff000000) | rgb;
+     setBasicRow(y,row);
    }
  }
  
@@ -313,6 +422,153 @@ public class SimplePicture implements DigitalPicture
    bufferedImage.setRGB(x,y,rgb);
  }
   
+ /**
+  * Method to get a rectangular region of pixels as ints, one row
+  * after another.  No Pixel objects are created.
+  * @param x the x coordinate of the left of the region
+  * @param y the y coordinate of the top of the region
+  * @param width the width of the region
+  * @param height the height of the region
+  * @param pixels the array to put the pixels in, or null to create one
+  * @param offset where in the array to put the first pixel
+  * @param scansize how far apart rows are in the array
+  * @return the array of pixel values (alpha, red, green, blue)
+  */
+ public int[] getBasicPixels(int x, int y, int width, int height,
+                             int[] pixels, int offset, int scansize)
+ {
+   int[] data = getIntData();
+   
+   // use the getRGB loops unless the pixels can be copied directly
+   if (data == null)
+     return bufferedImage.getRGB(x,y,width,height,pixels,offset,scansize);
+   
+   checkRegion(x,y,width,height);
+   if (pixels == null)
+     pixels = new int[offset + height * scansize];
+   
+   // the top byte isn't stored for TYPE_INT_RGB, so fill in the alpha
+   int alpha = bufferedImage.getType() == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+   int imageWidth = getWidth();
+   
+   for (int row = 0; row < height; row++)
+   {
+     int from = (y + row) * imageWidth + x;
+     int to = offset + row * scansize;
+     System.arraycopy(data,from,pixels,to,width);
+     if (alpha != 0)
+       for (int i = to; i < to + width; i++)
+         pixels[i] |= alpha;
+   }
+   return pixels;
+ }
+ 
+ /**
+  * Method to set a rectangular region of pixels from ints, one row
+  * after another.  No Pixel objects are created.
+  * @param x the x coordinate of the left of the region
+  * @param y the y coordinate of the top of the region
+  * @param width the width of the region
+  * @param height the height of the region
+  * @param pixels the pixel values (alpha, red, green, blue)
+  * @param offset where in the array the first pixel is
+  * @param scansize how far apart rows are in the array
+  */
+ public void setBasicPixels(int x, int y, int width, int height,
+                            int[] pixels, int offset, int scansize)
+ {
+   int[] data = getIntData();
+   
+   // use the setRGB loops unless the pixels can be copied directly
+   if (data == null)
+   {
+     bufferedImage.setRGB(x,y,width,height,pixels,offset,scansize);
+     return;
+   }
+   
+   checkRegion(x,y,width,height);
+   boolean noAlpha = bufferedImage.getType() == BufferedImage.TYPE_INT_RGB;
+   int imageWidth = getWidth();
+   
+   for (int row = 0; row < height; row++)
+   {
+     int from = offset + row * scansize;
+     int to = (y + row) * imageWidth + x;
+     if (noAlpha)
+       for (int i = 0; i < width; i++)
+         data[to + i] = pixels[from + i] & 0xffffff;
+     else
+       System.arraycopy(pixels,from,data,to,width);
+   }
+ }
+ 
+ /**
+  * Method to get a row of pixels as ints
+  * @param y the row to get
+  * @param row the array to put the pixels in, or null to create one
+  * @return the array of pixel values (alpha, red, green, blue)
+  */
+ public int[] getBasicRow(int y, int[] row)
+ {
+   return getBasicPixels(0,y,getWidth(),1,row,0,getWidth());
+ }
+ 
+ /**
+  * Method to set a row of pixels from ints
+  * @param y the row to set
+  * @param row the pixel values (alpha, red, green, blue)
+  */
+ public void setBasicRow(int y, int[] row)
+ {
+   setBasicPixels(0,y,getWidth(),1,row,0,getWidth());
+ }
+ 
+ /**
+  * Method to get the array of ints that holds the pixels, when the
+  * picture is TYPE_INT_RGB or TYPE_INT_ARGB.  Pixel (x, y) is at
+  * index y * width + x.  For TYPE_INT_RGB the top (alpha) byte isn't
+  * used and must be left 0.  Changes to the array change the picture
+  * straight away.  Note that Java2D can't speed up drawing a picture
+  * once its array has been handed out.
+  * @return the array of pixels, or null if the picture isn't stored
+  * that way
+  */
+ public int[] getIntData()
+ {
+   int type = bufferedImage.getType();
+   if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB)
+     return null;
+   
+   WritableRaster raster = bufferedImage.getRaster();
+   SinglePixelPackedSampleModel sampleModel = 
+     (SinglePixelPackedSampleModel) raster.getSampleModel();
+   DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+   
+   // only hand out arrays that are laid out exactly like the picture
+   if (sampleModel.getScanlineStride() != getWidth() || buffer.getOffset() != 0 ||
+       buffer.getNumBanks() != 1 || raster.getSampleModelTranslateX() != 0 ||
+       raster.getSampleModelTranslateY() != 0)
+     return null;
+   
+   return buffer.getData();
+ }
+ 
+ /**
+  * Method to check that a region is inside the picture
+  * @param x the x coordinate of the left of the region
+  * @param y the y coordinate of the top of the region
+  * @param width the width of the region
+  * @param height the height of the region
+  */
+ private void checkRegion(int x, int y, int width, int height)
+ {
+   if (x < 0 || y < 0 || width < 0 || height < 0 ||
+       x + width > getWidth() || y + height > getHeight())
+     throw new ArrayIndexOutOfBoundsException("Region (" + x + ", " + y + ", " +
+                                              width + ", " + height + 
+                                              ") is outside the picture");
+ }
+ 
  /**
   * Method to get a pixel object for the given x and y location
   * @param x  the x location of the pixel in the picture
@@ -364,7 +620,8 @@ public class SimplePicture implements DigitalPicture
  }
  
  /**
-  * Method to load the buffered image with the passed image
+  * Method to load the buffered image with the passed image and show
+  * it.  Without a display it is only loaded, so no frame is created
   * @param image  the image to use
   */
  public void load(Image image)
@@ -374,9 +631,11 @@ public class SimplePicture implements DigitalPicture
    
    // draw the image on the buffered image starting at 0,0
    graphics2d.drawImage(image,0,0,null);
+   graphics2d.dispose();
    
-   // show the new image
-   show();
+   // show the new image, unless there is no display to show it on
+   if (!GraphicsEnvironment.isHeadless())
+     show();
  }
  
  /**
@@ -446,6 +705,89 @@ public class SimplePicture implements DigitalPicture
   * @throws IOException if the picture isn't found
   */
  public void loadOrFail(String fileName) throws IOException
+ {
+   bufferedImage = ImageIO.read(findFile(fileName));
+ }
+ 
+ /**
+  * Method to load a reduced size picture from the passed file name.
+  * The decoder skips whole rows and columns of the source image
+  * (subsampling) so the full size image is never held in memory.
+  * The picture will be at least the given size (if the image is that
+  * big) so it can be scaled down the rest of the way afterwards.
+  * @param fileName the file name to use to load the picture from
+  * @param region the part of the image to load, or null for all of it
+  * @param width the smallest width needed
+  * @param height the smallest height needed
+  * @throws IOException if the picture isn't found or can't be decoded
+  */
+ public void loadOrFail(String fileName, Rectangle region, int width, int height)
+   throws IOException
+ {
+   File file = findFile(fileName);
+   
+   try (ImageInputStream input = ImageIO.createImageInputStream(file))
+   {
+     bufferedImage = read(input, region, width, height);
+   }
+   
+   if (bufferedImage == null)
+     throw new IOException(fileName + " is not in a format that can be read.");
+ }
+ 
+ /**
+  * Method to decode an image from a stream, subsampling it down to
+  * at least the given size
+  * @param input the stream to read the image from
+  * @param region the part of the image to read, or null for all of it
+  * @param width the smallest width needed
+  * @param height the smallest height needed
+  * @return the image, or null if there is no reader for its format
+  * @throws IOException if the image can't be decoded
+  */
+ public static BufferedImage read(ImageInputStream input, Rectangle region,
+                                  int width, int height) throws IOException
+ {
+   if (input == null)
+     return null;
+   
+   Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+   if (!readers.hasNext())
+     return null;
+   
+   ImageReader reader = readers.next();
+   try
+   {
+     reader.setInput(input, true, true);
+     
+     // only read the part of the region that is in the image
+     Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+     if (region != null)
+       bounds = bounds.intersection(region);
+     
+     // skip as many source pixels as possible while staying big enough
+     ImageReadParam param = reader.getDefaultReadParam();
+     param.setSourceRegion(bounds);
+     param.setSourceSubsampling(Math.max(1, bounds.width / Math.max(1, width)),
+                                Math.max(1, bounds.height / Math.max(1, height)),
+                                0, 0);
+     
+     return reader.read(0, param);
+   }
+   finally
+   {
+     reader.dispose();
+   }
+ }
+ 
+ /**
+  * Method to find the file for a picture, setting the file name,
+  * extension and title of the picture along the way
+  * @param fileName the file name to use to load the picture from
+  * @return the file to read
+  * @throws IOException if the picture isn't found
+  */
+ private File findFile(String fileName) throws IOException
  {
     // set the current picture's file name
    this.fileName = fileName;
@@ -472,7 +814,7 @@ public class SimplePicture implements DigitalPicture
      }
    }
    
-   bufferedImage = ImageIO.read(file);
+   return file;
  }
 
 
@@ -489,16 +831,50 @@ public class SimplePicture implements DigitalPicture
          return true;
 
      } catch (Exception ex) {
-         System.out.println("There was an error trying to open " + fileName);
-         ex.printStackTrace();
-
-         bufferedImage = new BufferedImage(600,200,
-                                           BufferedImage.TYPE_INT_RGB);
-         addMessage("Couldn't load " + fileName,5,100);
+         loadFailed(fileName, ex);
          return false;
      }
          
  }
+ 
+ /**
+  * Method to read a reduced size picture from a filename without
+  * throwing errors.  See {@link #loadOrFail(String, Rectangle, int, int)}.
+  * @param fileName the name of the file to read the picture from
+  * @param region the part of the image to load, or null for all of it
+  * @param width the smallest width needed
+  * @param height the smallest height needed
+  * @return true if success else false
+  */
+ public boolean load(String fileName, Rectangle region, int width, int height)
+ {
+     try {
+         this.loadOrFail(fileName, region, width, height);
+         return true;
+
+     } catch (Exception ex) {
+         loadFailed(fileName, ex);
+         return false;
+     }
+ }
+ 
+ /**
+  * Method to report a picture that couldn't be loaded and replace
+  * it with a message saying so.  Use it after loading the picture
+  * some other way fails, so the failure looks the same as one from
+  * {@link #load(String)}
+  * @param fileName the name of the file that couldn't be loaded
+  * @param ex what went wrong
+  */
+ public void loadFailed(String fileName, Exception ex)
+ {
+     System.out.println("There was an error trying to open " + fileName);
+     ex.printStackTrace();
+
+     bufferedImage = new BufferedImage(600,200,
+                                       BufferedImage.TYPE_INT_RGB);
+     addMessage("Couldn't load " + fileName,5,100);
+ }
 
  /**
   * Method to load the picture from the passed file name